@@ -0,0 +1,120 @@
+package com.suslov.cft.chat.benchmark;
+
+import com.suslov.cft.chat.common.Feature;
+import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.common.codec.MessageCodec;
+import com.suslov.cft.chat.common.codec.WireFormat;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static com.suslov.cft.chat.common.Message.Type.*;
+
+// Benchmark client speaking the binary protocol; the handshake is blocking, after it the channel is read through
+// a selector shared by many connections
+public class ChatConnection {
+    private static final MessageCodec CODEC = WireFormat.BINARY.getCodec();
+    // Benchmark users do not resume their sessions, and their frames are not compressed unless a benchmark asks for it
+    private static final Set<Feature> FEATURES = EnumSet.complementOf(EnumSet.of(Feature.RESUME, Feature.COMPRESSION));
+
+    private final SocketChannel channel;
+    @Getter
+    private final String name;
+    private final Consumer<Message> consumer;
+    private ByteBuffer in = ByteBuffer.allocate(8 * 1024);
+    @Getter
+    private boolean closedByServer;
+
+    private ChatConnection(SocketChannel channel, String name, Consumer<Message> consumer) {
+        this.channel = channel;
+        this.name = name;
+        this.consumer = consumer;
+    }
+
+    public static ChatConnection open(int port, String name, Consumer<Message> consumer) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+        channel.write(ByteBuffer.wrap(WireFormat.JSON.getCodec()
+                .encode(new Message(HELLO, null, Feature.format(FEATURES)))));
+        awaitHello(channel);
+        return new ChatConnection(channel, name, consumer);
+    }
+
+    // The reply is a single JSON line, after it every frame is binary
+    private static void awaitHello(SocketChannel channel) throws IOException {
+        ByteBuffer one = ByteBuffer.allocate(1);
+        do {
+            one.clear();
+            if (channel.read(one) < 0) {
+                throw new IOException("server has closed the connection during the handshake");
+            }
+        } while (one.get(0) != '\n');
+    }
+
+    public void register(Selector selector) throws IOException {
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    // The channel may be non-blocking already, so the frame is written until nothing is left
+    public void send(Message message) throws IOException {
+        ByteBuffer frame = ByteBuffer.wrap(CODEC.encode(message));
+        synchronized (this) {
+            while (frame.hasRemaining()) {
+                if (channel.write(frame) == 0) {
+                    Thread.onSpinWait();
+                }
+            }
+        }
+    }
+
+    public void read() throws IOException {
+        if (!in.hasRemaining()) {
+            in = ByteBuffer.allocate(in.capacity() * 2).put(in.flip());
+        }
+        if (channel.read(in) < 0) {
+            closedByServer = true;
+            throw new IOException("server has closed the connection of " + name);
+        }
+        in.flip();
+        Message message;
+        while ((message = CODEC.decode(in)) != null) {
+            if (message.getType() == PING) {
+                send(new Message(PONG, null, null));
+            }
+            consumer.accept(message);
+        }
+        in.compact();
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // the server is stopped right after, nothing to clean up
+        }
+    }
+
+    // Reads every registered connection until the flag is cleared
+    public static void readAll(Selector selector, BooleanSupplier running) {
+        try {
+            while (running.getAsBoolean()) {
+                selector.select(100);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    ((ChatConnection) key.attachment()).read();
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            System.out.println("Reading error: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.suslov.cft.chat.benchmark;
+
+import com.suslov.cft.chat.common.Message;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import static com.suslov.cft.chat.common.Message.Type.*;
+
+public class ClusterBenchmark {
+    private static final int FIRST_PORT = 5200;
+    private static final int FIRST_CLUSTER_PORT = 5300;
+    private static final long SETTLE_MILLIS = 2_500;
+    private static final long TIMEOUT_MILLIS = 60_000;
+    private static final long SEND_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // The first messages only warm up the nodes and are not measured
+    private static final int WARMUP_SHARE = 10;
+    private static final String SENDER = "sender";
+    private static final String SHARED_NAME = "shared";
+
+    private final int nodes;
+    private final int usersPerNode;
+    private final int messages;
+    private final String bus;
+    private final String engine;
+    private final List<Member> members = new ArrayList<>();
+    private final AtomicInteger sharedNameRejections = new AtomicInteger();
+    private final AtomicLong received = new AtomicLong();
+    private volatile boolean running = true;
+
+    public ClusterBenchmark(int nodes, int usersPerNode, int messages, String bus, String engine) {
+        this.nodes = nodes;
+        this.usersPerNode = usersPerNode;
+        this.messages = messages;
+        this.bus = bus;
+        this.engine = engine;
+    }
+
+    public void run() throws IOException {
+        List<ServerProcess> servers = startCluster();
+        try (Selector selector = Selector.open()) {
+            ServerProcess.sleep(SETTLE_MILLIS);
+            List<ChatConnection> connections = new ArrayList<>();
+            for (int node = 0; node < nodes; node++) {
+                connections.add(ChatConnection.open(FIRST_PORT + node, SHARED_NAME, this::countRejection));
+            }
+            for (int node = 0; node < nodes; node++) {
+                for (int user = 0; user < usersPerNode; user++) {
+                    Member member = new Member(node);
+                    members.add(member);
+                    connections.add(ChatConnection.open(FIRST_PORT + node, "node" + node + "-user" + user,
+                            member::accept));
+                }
+            }
+            ChatConnection sender = ChatConnection.open(FIRST_PORT, SENDER, message -> {
+            });
+            connections.add(sender);
+            for (ChatConnection connection : connections) {
+                connection.register(selector);
+            }
+            Thread reader = new Thread(() -> ChatConnection.readAll(selector, () -> running), "cluster-benchmark-reader");
+            reader.start();
+
+            for (ChatConnection connection : connections) {
+                connection.send(new Message(USER_NAME, connection.getName()));
+            }
+            int rosterSize = members.size() + 2;
+            if (!await(() -> members.stream().allMatch(member -> member.rosterSize == rosterSize))) {
+                System.out.println("The roster has not converged to " + rosterSize + " users on every node");
+            }
+
+            for (int i = 0; i < messages; i++) {
+                sender.send(new Message(USER_TEXT, SENDER, i + ":" + System.nanoTime()));
+                LockSupport.parkNanos(SEND_INTERVAL_NANOS);
+            }
+            long expected = (long) messages * members.size();
+            boolean complete = await(() -> received.get() >= expected);
+            running = false;
+            selector.wakeup();
+            RoomBenchmark.join(reader);
+            connections.forEach(ChatConnection::close);
+
+            System.out.printf("bus=%s engine=%s nodes=%d users=%d messages=%d received=%d of %d%s%n", bus, engine,
+                    nodes, members.size(), messages, received.get(), expected, complete ? "" : " (timed out)");
+            System.out.printf("duplicate name '%s' registered on %d nodes at once: %d rejected (expected %d)%n",
+                    SHARED_NAME, nodes, sharedNameRejections.get(), nodes - 1);
+            System.out.printf("%-12s %10s %10s %10s %10s %10s%n", "latency us", "count", "p50", "p90", "p99", "max");
+            printLatencies("same node", true);
+            printLatencies("cross node", false);
+        } finally {
+            servers.forEach(ServerProcess::close);
+        }
+    }
+
+    private List<ServerProcess> startCluster() throws IOException {
+        Map<String, String> settings = new HashMap<>(Map.of("engine", engine, "history.enabled", "false"));
+        List<Integer> ports = new ArrayList<>();
+        for (int node = 0; node < nodes; node++) {
+            ports.add(FIRST_PORT + node);
+        }
+        if (bus.equals("loopback")) {
+            return List.of(ServerProcess.startLoopbackCluster(ports, settings));
+        }
+        List<ServerProcess> servers = new ArrayList<>();
+        for (int node = 0; node < nodes; node++) {
+            List<String> peers = new ArrayList<>();
+            for (int peer = 0; peer < nodes; peer++) {
+                if (peer != node) {
+                    peers.add("127.0.0.1:" + (FIRST_CLUSTER_PORT + peer));
+                }
+            }
+            Map<String, String> nodeSettings = new HashMap<>(settings);
+            nodeSettings.put("cluster.bus", "tcp");
+            nodeSettings.put("cluster.node", "node-" + node);
+            nodeSettings.put("cluster.port", String.valueOf(FIRST_CLUSTER_PORT + node));
+            nodeSettings.put("cluster.peers", String.join(",", peers));
+            servers.add(ServerProcess.start(FIRST_PORT + node, nodeSettings));
+        }
+        return servers;
+    }
+
+    private void countRejection(Message message) {
+        if (message.getType() == ERROR_NAME) {
+            sharedNameRejections.incrementAndGet();
+        }
+    }
+
+    private void printLatencies(String label, boolean sameNode) {
+        List<Long> all = new ArrayList<>();
+        for (Member member : members) {
+            if ((member.node == 0) == sameNode) {
+                all.addAll(member.latencies);
+            }
+        }
+        long[] sorted = all.stream().mapToLong(Long::longValue).sorted().toArray();
+        if (sorted.length == 0) {
+            System.out.printf("%-12s %10d%n", label, 0);
+            return;
+        }
+        System.out.printf("%-12s %10d %10d %10d %10d %10d%n", label, sorted.length, percentile(sorted, 0.5),
+                percentile(sorted, 0.9), percentile(sorted, 0.99), sorted[sorted.length - 1] / 1_000);
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1_000;
+    }
+
+    private boolean await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            ServerProcess.sleep(10);
+        }
+        return condition.getAsBoolean();
+    }
+
+    // Updated by the reader thread only
+    private class Member {
+        private final int node;
+        private final List<Long> latencies = new ArrayList<>();
+        private volatile int rosterSize;
+
+        private Member(int node) {
+            this.node = node;
+        }
+
+        private void accept(Message message) {
+            switch (message.getType()) {
+                case USER_NAME -> rosterSize = message.getText().isEmpty()
+                        ? 0 : message.getText().split(";").length;
+                case PRESENCE_ADDED -> rosterSize++;
+                case PRESENCE_REMOVED -> rosterSize--;
+                case USER_TEXT -> {
+                    if (SENDER.equals(message.getUserName())) {
+                        String[] indexAndTime = message.getText().split(":");
+                        if (Integer.parseInt(indexAndTime[0]) >= messages / WARMUP_SHARE) {
+                            latencies.add(System.nanoTime() - Long.parseLong(indexAndTime[1]));
+                        }
+                        received.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.suslov.cft.chat.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class IdleConnectionBenchmark {
+    private static final int PORT = 5100;
+    private static final long SETTLE_MILLIS = 3_000;
+
+    private final int connections;
+    private final List<String> engines;
+
+    public IdleConnectionBenchmark(int connections, List<String> engines) {
+        this.connections = connections;
+        this.engines = engines;
+    }
+
+    public void run() throws IOException {
+        System.out.println("thread/virtual: 2 threads per connection (reader and writer), nio: shared event loops");
+        System.out.printf("%-8s %12s %12s %12s %10s %14s %18s%n", "engine", "connections", "idle RSS MB",
+                "RSS MB", "threads", "KB/connection", "threads/connection");
+        for (String engine : engines) {
+            try (ServerProcess server = ServerProcess.start(PORT, Map.of("engine", engine))) {
+                ServerProcess.sleep(SETTLE_MILLIS);
+                long idleRss = server.getResidentMemoryKb();
+                long idleThreads = server.getThreadCount();
+                List<SocketChannel> channels = openConnections(server.getPort());
+                ServerProcess.sleep(SETTLE_MILLIS);
+                long rss = server.getResidentMemoryKb();
+                long threads = server.getThreadCount();
+                closeAll(channels);
+                System.out.printf("%-8s %12d %12.1f %12.1f %10d %14.1f %18.2f%n", engine, channels.size(),
+                        idleRss / 1024.0, rss / 1024.0, threads,
+                        channels.isEmpty() ? 0.0 : (rss - idleRss) / (double) channels.size(),
+                        channels.isEmpty() ? 0.0 : (threads - idleThreads) / (double) channels.size());
+            }
+        }
+    }
+
+    private List<SocketChannel> openConnections(int port) {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+        List<SocketChannel> channels = new ArrayList<>(connections);
+        while (channels.size() < connections) {
+            try {
+                channels.add(SocketChannel.open(address));
+            } catch (IOException e) {
+                System.out.println("Stopped opening connections after " + channels.size() + ": " + e.getMessage());
+                break;
+            }
+        }
+        return channels;
+    }
+
+    private void closeAll(List<SocketChannel> channels) {
+        for (SocketChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // the server is stopped right after, nothing to clean up
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.suslov.cft.chat.benchmark;
+
+import com.suslov.cft.chat.server.metrics.ConcurrentHistogram;
+
+// The server histogram with 128 linear buckets in every power of two range, so a recorded value is kept with an error
+// below 1% whatever its magnitude. Every recording thread keeps its own histogram and they are merged for the report
+public class LatencyHistogram {
+    private static final int PRECISION = 7;
+
+    private final ConcurrentHistogram histogram = new ConcurrentHistogram(1, PRECISION);
+
+    public void record(long value) {
+        histogram.record(value);
+    }
+
+    public void add(LatencyHistogram other) {
+        histogram.add(other.histogram);
+    }
+
+    public long getTotalCount() {
+        return histogram.snapshot().count();
+    }
+
+    public long getMax() {
+        return histogram.snapshot().max();
+    }
+
+    public double getMean() {
+        return histogram.snapshot().mean();
+    }
+
+    public long getValueAtPercentile(double percentile) {
+        return histogram.snapshot().valueAtPercentile(percentile);
+    }
+}
@@ -0,0 +1,183 @@
+package com.suslov.cft.chat.benchmark;
+
+import com.suslov.cft.chat.common.Message;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import static com.suslov.cft.chat.common.Message.Type.USER_NAME;
+import static com.suslov.cft.chat.common.Message.Type.USER_TEXT;
+
+// Open-loop load: messages are sent on a fixed schedule and the latency is counted from the scheduled time, so a
+// stalled server is not hidden by the senders slowing down with it
+public class LoadBenchmark {
+    private static final int PORT = 5102;
+    private static final long SEED = 42;
+    private static final long REGISTRATION_TIMEOUT_MILLIS = 120_000;
+    private static final long DRAIN_TIMEOUT_MILLIS = 10_000;
+    private static final String MARKER = "load:";
+
+    private final int users;
+    private final int rate;
+    private final int messageSize;
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final List<String> engines;
+
+    public LoadBenchmark(int users, int rate, int messageSize, int durationSeconds, int warmupSeconds,
+                         List<String> engines) {
+        this.users = users;
+        this.rate = rate;
+        this.messageSize = messageSize;
+        this.durationSeconds = durationSeconds;
+        this.warmupSeconds = warmupSeconds;
+        this.engines = engines;
+    }
+
+    public void run() throws IOException {
+        System.out.printf("users=%d rate=%d msgs/s size=%d bytes duration=%d s warmup=%d s seed=%d%n", users, rate,
+                messageSize, durationSeconds, warmupSeconds, SEED);
+        System.out.printf("java=%s cpus=%d%n", System.getProperty("java.version"),
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-8s %9s %10s %10s %12s %9s %9s %9s %9s %9s %9s %9s %8s%n", "engine", "sent", "delivered",
+                "lost", "delivered/s", "mean us", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us", "RSS MB",
+                "threads");
+        for (String engine : engines) {
+            try (ServerProcess server = ServerProcess.start(PORT, Map.of("engine", engine))) {
+                new Run(server).execute(engine);
+            }
+        }
+    }
+
+    private String payload(int index, long scheduledNanos) {
+        StringBuilder text = new StringBuilder(MARKER).append(index).append(':').append(scheduledNanos).append(':');
+        while (text.length() < messageSize) {
+            text.append('x');
+        }
+        return text.toString();
+    }
+
+    private class Run {
+        private final ServerProcess server;
+        private final int readers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        private final LatencyHistogram[] histograms = new LatencyHistogram[readers];
+        private final AtomicInteger registered = new AtomicInteger();
+        private final AtomicLong delivered = new AtomicLong();
+        private final int warmupMessages = rate * warmupSeconds;
+        private volatile boolean running = true;
+
+        private Run(ServerProcess server) {
+            this.server = server;
+        }
+
+        private void execute(String engine) throws IOException {
+            List<Selector> selectors = new ArrayList<>();
+            List<Thread> readerThreads = new ArrayList<>();
+            List<ChatConnection> connections = new ArrayList<>(users);
+            try {
+                for (int i = 0; i < readers; i++) {
+                    histograms[i] = new LatencyHistogram();
+                    selectors.add(Selector.open());
+                }
+                for (int i = 0; i < users; i++) {
+                    LatencyHistogram histogram = histograms[i % readers];
+                    connections.add(ChatConnection.open(server.getPort(), "load-user-" + i,
+                            message -> accept(message, histogram)));
+                }
+                for (int i = 0; i < users; i++) {
+                    connections.get(i).register(selectors.get(i % readers));
+                }
+                for (Selector selector : selectors) {
+                    Thread reader = new Thread(() -> ChatConnection.readAll(selector, () -> running), "load-reader");
+                    reader.start();
+                    readerThreads.add(reader);
+                }
+                for (ChatConnection connection : connections) {
+                    connection.send(new Message(USER_NAME, connection.getName()));
+                }
+                if (!await(() -> registered.get() >= users, REGISTRATION_TIMEOUT_MILLIS)) {
+                    System.out.println("Only " + registered.get() + " of " + users + " users have registered");
+                }
+
+                int sent = send(connections);
+                long expected = (long) sent * users;
+                await(() -> delivered.get() >= expected, DRAIN_TIMEOUT_MILLIS);
+                report(engine, sent, expected);
+            } finally {
+                running = false;
+                selectors.forEach(Selector::wakeup);
+                readerThreads.forEach(RoomBenchmark::join);
+                connections.forEach(ChatConnection::close);
+                for (Selector selector : selectors) {
+                    selector.close();
+                }
+            }
+        }
+
+        // Senders are picked by a seeded random, so every run sends the same messages from the same users
+        private int send(List<ChatConnection> connections) throws IOException {
+            Random random = new Random(SEED);
+            long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+            int total = rate * (warmupSeconds + durationSeconds);
+            long start = System.nanoTime();
+            for (int i = 0; i < total; i++) {
+                long scheduled = start + i * intervalNanos;
+                long delay = scheduled - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+                ChatConnection sender = connections.get(random.nextInt(connections.size()));
+                sender.send(new Message(USER_TEXT, sender.getName(), payload(i, scheduled)));
+            }
+            return total;
+        }
+
+        private void accept(Message message, LatencyHistogram histogram) {
+            if (message.getType() == USER_NAME && message.getVersion() != null) {
+                registered.incrementAndGet();
+            } else if (message.getType() == USER_TEXT && message.getText().startsWith(MARKER)) {
+                long now = System.nanoTime();
+                String[] fields = message.getText().split(":", 4);
+                if (Integer.parseInt(fields[1]) >= warmupMessages) {
+                    histogram.record(now - Long.parseLong(fields[2]));
+                }
+                delivered.incrementAndGet();
+            }
+        }
+
+        private void report(String engine, int sent, long expected) throws IOException {
+            LatencyHistogram latency = new LatencyHistogram();
+            for (LatencyHistogram histogram : histograms) {
+                latency.add(histogram);
+            }
+            double measuredSeconds = durationSeconds;
+            long measuredDeliveries = latency.getTotalCount();
+            System.out.printf("%-8s %9d %10d %10d %12.0f %9.0f %9d %9d %9d %9d %9d %8.1f %8d%n", engine, sent,
+                    delivered.get(), expected - delivered.get(), measuredDeliveries / measuredSeconds,
+                    latency.getMean() / 1_000, micros(latency, 50), micros(latency, 90), micros(latency, 99),
+                    micros(latency, 99.9), latency.getMax() / 1_000, server.getResidentMemoryKb() / 1024.0,
+                    server.getThreadCount());
+        }
+
+        private long micros(LatencyHistogram histogram, double percentile) {
+            return histogram.getValueAtPercentile(percentile) / 1_000;
+        }
+
+        private boolean await(BooleanSupplier condition, long timeoutMillis) {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+                ServerProcess.sleep(10);
+            }
+            return condition.getAsBoolean();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.suslov.cft.chat.benchmark;
+
+import com.suslov.cft.chat.common.Message;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static com.suslov.cft.chat.common.Message.Type.USER_NAME;
+import static com.suslov.cft.chat.common.Message.Type.USER_TEXT;
+
+// Every chat message is logged by the server, so a burst of messages from a few users shows how much the logging
+// mode limits the throughput
+public class LoggingBenchmark {
+    private static final int PORT = 5103;
+    private static final long TIMEOUT_MILLIS = 120_000;
+    private static final String MARKER = "logging:";
+    private static final List<Mode> MODES = List.of(
+            new Mode("sync", "log4j-sync.xml", 1),
+            new Mode("async", "log4j.xml", 1),
+            new Mode("sampled", "log4j.xml", 100));
+
+    private final int users;
+    private final int messagesPerUser;
+    private final String engine;
+
+    public LoggingBenchmark(int users, int messagesPerUser, String engine) {
+        this.users = users;
+        this.messagesPerUser = messagesPerUser;
+        this.engine = engine;
+    }
+
+    public void run() throws IOException {
+        System.out.printf("engine=%s users=%d messages per user=%d%n", engine, users, messagesPerUser);
+        System.out.printf("%-8s %14s %8s %10s %10s %12s%n", "mode", "config", "sample", "sent", "seconds",
+                "sent/s");
+        for (Mode mode : MODES) {
+            // The queues hold the whole burst, so a reader falling behind does not make the server drop messages
+            Map<String, String> settings = Map.of("engine", engine, "history.enabled", "false",
+                    "log.messages.sample", String.valueOf(mode.sample()),
+                    "outbound.capacity", String.valueOf(users * messagesPerUser + 1024));
+            try (ServerProcess server = ServerProcess.start(PORT, settings,
+                    List.of("-Dlog4j.configuration=" + mode.config()))) {
+                new Run(server).execute(mode);
+            }
+        }
+    }
+
+    private record Mode(String name, String config, int sample) {
+    }
+
+    private class Run {
+        private final ServerProcess server;
+        private final AtomicInteger registered = new AtomicInteger();
+        private final AtomicLong delivered = new AtomicLong();
+        private volatile boolean running = true;
+
+        private Run(ServerProcess server) {
+            this.server = server;
+        }
+
+        private void execute(Mode mode) throws IOException {
+            List<ChatConnection> connections = new ArrayList<>(users);
+            try (Selector selector = Selector.open()) {
+                for (int i = 0; i < users; i++) {
+                    connections.add(ChatConnection.open(server.getPort(), "logging-user-" + i, this::accept));
+                }
+                for (ChatConnection connection : connections) {
+                    connection.register(selector);
+                }
+                Thread reader = new Thread(() -> ChatConnection.readAll(selector, () -> running), "logging-reader");
+                reader.start();
+                try {
+                    for (ChatConnection connection : connections) {
+                        connection.send(new Message(USER_NAME, connection.getName()));
+                    }
+                    await(() -> registered.get() >= users);
+
+                    long start = System.nanoTime();
+                    for (int message = 0; message < messagesPerUser; message++) {
+                        for (ChatConnection connection : connections) {
+                            connection.send(new Message(USER_TEXT, connection.getName(), MARKER + message));
+                        }
+                    }
+                    long sent = (long) messagesPerUser * users;
+                    boolean complete = await(() -> delivered.get() >= sent * users);
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    System.out.printf("%-8s %14s %8d %10d %10.2f %12.0f%s%n", mode.name(), mode.config(),
+                            mode.sample(), sent, seconds, sent / seconds, complete ? "" : " (timed out)");
+                } finally {
+                    running = false;
+                    selector.wakeup();
+                    RoomBenchmark.join(reader);
+                    connections.forEach(ChatConnection::close);
+                }
+            }
+        }
+
+        private void accept(Message message) {
+            if (message.getType() == USER_NAME && message.getVersion() != null) {
+                registered.incrementAndGet();
+            } else if (message.getType() == USER_TEXT && message.getText().startsWith(MARKER)) {
+                delivered.incrementAndGet();
+            }
+        }
+
+        private boolean await(BooleanSupplier condition) {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+                ServerProcess.sleep(10);
+            }
+            return condition.getAsBoolean();
+        }
+    }
+}
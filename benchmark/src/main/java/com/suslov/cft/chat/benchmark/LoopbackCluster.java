@@ -0,0 +1,15 @@
+package com.suslov.cft.chat.benchmark;
+
+import com.suslov.cft.chat.server.ChatServer;
+import com.suslov.cft.chat.server.service.ServerSettings;
+
+// Starts a server node per port in this JVM, the nodes get the settings from server.properties and random ids
+public class LoopbackCluster {
+
+    public static void main(String[] args) {
+        for (String port : args) {
+            ChatServer server = new ChatServer(ServerSettings.load());
+            new Thread(() -> server.launch(Integer.parseInt(port)), "node-" + port).start();
+        }
+    }
+}
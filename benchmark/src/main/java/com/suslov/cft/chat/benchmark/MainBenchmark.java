@@ -0,0 +1,44 @@
+package com.suslov.cft.chat.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+
+public class MainBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        String scenario = args.length > 0 ? args[0] : "";
+        switch (scenario) {
+            case "idle" -> new IdleConnectionBenchmark(intArg(args, 1, 10_000),
+                    List.of(stringArg(args, 2, "thread,virtual,nio").split(","))).run();
+            case "rooms" -> new RoomBenchmark(intArg(args, 1, 3_000), intArg(args, 2, 1_000),
+                    intArg(args, 3, 20), stringArg(args, 4, "nio")).run();
+            case "cluster" -> new ClusterBenchmark(intArg(args, 1, 3), intArg(args, 2, 200), intArg(args, 3, 1_000),
+                    stringArg(args, 4, "tcp"), stringArg(args, 5, "nio")).run();
+            case "load" -> new LoadBenchmark(intArg(args, 1, 1_000), intArg(args, 2, 200), intArg(args, 3, 100),
+                    intArg(args, 4, 30), intArg(args, 5, 5),
+                    List.of(stringArg(args, 6, "thread,virtual,nio").split(","))).run();
+            case "logging" -> new LoggingBenchmark(intArg(args, 1, 10), intArg(args, 2, 5_000),
+                    stringArg(args, 3, "nio")).run();
+            case "shutdown" -> new ShutdownBenchmark(intArg(args, 1, 20), intArg(args, 2, 500),
+                    List.of(stringArg(args, 3, "thread,nio").split(","))).run();
+            default -> {
+                System.out.println("Usage: java -jar benchmark-1.0.jar idle [connections] [engines]");
+                System.out.println("       java -jar benchmark-1.0.jar rooms [users] [rooms] [messages per user] [engine]");
+                System.out.println("       java -jar benchmark-1.0.jar cluster [nodes] [users per node] [messages] "
+                        + "[tcp|loopback] [engine]");
+                System.out.println("       java -jar benchmark-1.0.jar load [users] [messages per second] "
+                        + "[message size] [duration seconds] [warmup seconds] [engines]");
+                System.out.println("       java -jar benchmark-1.0.jar logging [users] [messages per user] [engine]");
+                System.out.println("       java -jar benchmark-1.0.jar shutdown [users] [messages per user] [engines]");
+            }
+        }
+    }
+
+    private static int intArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    private static String stringArg(String[] args, int index, String defaultValue) {
+        return args.length > index ? args[index] : defaultValue;
+    }
+}
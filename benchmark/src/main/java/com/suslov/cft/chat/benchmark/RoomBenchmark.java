@@ -0,0 +1,123 @@
+package com.suslov.cft.chat.benchmark;
+
+import com.suslov.cft.chat.common.Message;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.suslov.cft.chat.common.Message.Type.*;
+
+public class RoomBenchmark {
+    private static final int PORT = 5101;
+    private static final long TIMEOUT_MILLIS = 120_000;
+
+    private final int users;
+    private final int rooms;
+    private final int messagesPerUser;
+    private final String engine;
+    private final AtomicLong joined = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong misrouted = new AtomicLong();
+    private volatile boolean running = true;
+
+    public RoomBenchmark(int users, int rooms, int messagesPerUser, String engine) {
+        this.users = users;
+        this.rooms = rooms;
+        this.messagesPerUser = messagesPerUser;
+        this.engine = engine;
+    }
+
+    public void run() throws IOException {
+        try (ServerProcess server = ServerProcess.start(PORT, Map.of("engine", engine, "history.enabled", "false"));
+             Selector selector = Selector.open()) {
+            List<ChatConnection> connected = connectUsers(server.getPort());
+            for (ChatConnection user : connected) {
+                user.register(selector);
+            }
+            Thread reader = new Thread(() -> ChatConnection.readAll(selector, () -> running), "room-benchmark-reader");
+            reader.start();
+
+            for (int i = 0; i < connected.size(); i++) {
+                ChatConnection user = connected.get(i);
+                user.send(new Message(USER_NAME, user.getName()));
+                user.send(new Message(ROOM_JOIN, user.getName()).withRoom(roomOf(i)));
+            }
+            if (!await(joined, connected.size())) {
+                System.out.println("Only " + joined.get() + " of " + connected.size() + " users have joined rooms");
+            }
+
+            long expected = 0;
+            for (int i = 0; i < connected.size(); i++) {
+                expected += (long) messagesPerUser * roomSize(i % rooms, connected.size());
+            }
+            long start = System.nanoTime();
+            for (int message = 0; message < messagesPerUser; message++) {
+                for (int i = 0; i < connected.size(); i++) {
+                    ChatConnection user = connected.get(i);
+                    user.send(new Message(USER_TEXT, user.getName(), "message " + message).withRoom(roomOf(i)));
+                }
+            }
+            boolean complete = await(delivered, expected);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            running = false;
+            selector.wakeup();
+            join(reader);
+
+            long sent = (long) messagesPerUser * connected.size();
+            System.out.printf("engine=%s users=%d rooms=%d messages sent=%d delivered=%d of %d misrouted=%d%n",
+                    engine, connected.size(), rooms, sent, delivered.get(), expected, misrouted.get());
+            System.out.printf("%.2f s, %.0f msgs/s sent, %.0f msgs/s delivered, average fan-out %.1f%s%n", seconds,
+                    sent / seconds, delivered.get() / seconds, expected / (double) sent,
+                    complete ? "" : " (timed out)");
+        }
+    }
+
+    private List<ChatConnection> connectUsers(int port) throws IOException {
+        List<ChatConnection> connected = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            String name = "user-" + i;
+            String room = roomOf(i);
+            connected.add(ChatConnection.open(port, name, message -> count(name, room, message)));
+        }
+        return connected;
+    }
+
+    private void count(String name, String room, Message message) {
+        if (message.getType() == ROOM_JOIN && name.equals(message.getUserName())) {
+            joined.incrementAndGet();
+        } else if (message.getType() == USER_TEXT) {
+            delivered.incrementAndGet();
+            if (!room.equals(message.getRoom())) {
+                misrouted.incrementAndGet();
+            }
+        }
+    }
+
+    private String roomOf(int user) {
+        return "room-" + user % rooms;
+    }
+
+    private int roomSize(int roomIndex, int userCount) {
+        return userCount / rooms + (roomIndex < userCount % rooms ? 1 : 0);
+    }
+
+    private boolean await(AtomicLong counter, long expected) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (counter.get() < expected && System.currentTimeMillis() < deadline) {
+            ServerProcess.sleep(10);
+        }
+        return counter.get() >= expected;
+    }
+
+    static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
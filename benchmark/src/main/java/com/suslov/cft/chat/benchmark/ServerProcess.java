@@ -0,0 +1,138 @@
+package com.suslov.cft.chat.benchmark;
+
+import lombok.Getter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+public class ServerProcess implements AutoCloseable {
+    private static final long STARTUP_TIMEOUT_MILLIS = 15_000;
+
+    private final Process process;
+    private final Path configDir;
+    @Getter
+    private final int port;
+
+    private ServerProcess(Process process, Path configDir, int port) {
+        this.process = process;
+        this.configDir = configDir;
+        this.port = port;
+    }
+
+    public static ServerProcess start(int port, Map<String, String> settings) throws IOException {
+        return start(port, settings, List.of());
+    }
+
+    public static ServerProcess start(int port, Map<String, String> settings, List<String> jvmOptions)
+            throws IOException {
+        return start(List.of(port), settings, jvmOptions, List.of("com.suslov.cft.chat.server.MainServer"));
+    }
+
+    // All the nodes run in one JVM and are connected by the loopback cluster bus
+    public static ServerProcess startLoopbackCluster(List<Integer> ports, Map<String, String> settings)
+            throws IOException {
+        Map<String, String> clusterSettings = new HashMap<>(settings);
+        clusterSettings.put("cluster.bus", "loopback");
+        List<String> mainAndPorts = new ArrayList<>();
+        mainAndPorts.add(LoopbackCluster.class.getName());
+        ports.forEach(port -> mainAndPorts.add(String.valueOf(port)));
+        return start(ports, clusterSettings, List.of(), mainAndPorts);
+    }
+
+    private static ServerProcess start(List<Integer> ports, Map<String, String> settings, List<String> jvmOptions,
+                                       List<String> mainAndArgs) throws IOException {
+        int port = ports.get(0);
+        Path configDir = Files.createTempDirectory("chat-benchmark");
+        Properties serverProps = new Properties();
+        // The benchmarks load the server far beyond what its flood protection lets a single user send
+        serverProps.putAll(Map.of("rate.connection.messages.per.second", "1000000", "rate.connection.burst", "1000000",
+                "rate.user.messages.per.second", "1000000", "rate.user.burst", "1000000"));
+        serverProps.putAll(settings);
+        try (var out = Files.newBufferedWriter(configDir.resolve("server.properties"))) {
+            serverProps.store(out, null);
+        }
+        Files.writeString(configDir.resolve("connection.properties"), "host=127.0.0.1\nport=" + port + "\n");
+
+        String java = ProcessHandle.current().info().command().orElse("java");
+        String classpath = configDir + File.pathSeparator + System.getProperty("java.class.path");
+        List<String> command = new ArrayList<>(List.of(java, "-cp", classpath));
+        command.addAll(jvmOptions);
+        command.addAll(mainAndArgs);
+        Process process = new ProcessBuilder(command)
+                .directory(configDir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(configDir.resolve("server.out").toFile())
+                .start();
+        ServerProcess server = new ServerProcess(process, configDir, port);
+        for (int nodePort : ports) {
+            server.awaitListening(nodePort);
+        }
+        return server;
+    }
+
+    public long getResidentMemoryKb() throws IOException {
+        return readStatusValue("VmRSS:");
+    }
+
+    public long getThreadCount() throws IOException {
+        return readStatusValue("Threads:");
+    }
+
+    private long readStatusValue(String field) throws IOException {
+        for (String line : Files.readAllLines(Path.of("/proc", String.valueOf(process.pid()), "status"))) {
+            if (line.startsWith(field)) {
+                return Long.parseLong(line.substring(field.length()).trim().split("\\s+")[0]);
+            }
+        }
+        return -1;
+    }
+
+    private void awaitListening(int port) throws IOException {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            if (!process.isAlive()) {
+                throw new IOException("server process has exited, see " + configDir.resolve("server.out"));
+            }
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress("127.0.0.1", port), 200);
+                return;
+            } catch (IOException e) {
+                sleep(100);
+            }
+        }
+        close();
+        throw new IOException("server has not started listening on port " + port);
+    }
+
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Sends SIGTERM and returns at once, the server runs its shutdown while the caller keeps reading
+    public void terminate() {
+        process.destroy();
+    }
+
+    @Override
+    public void close() {
+        process.destroy();
+        try {
+            process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
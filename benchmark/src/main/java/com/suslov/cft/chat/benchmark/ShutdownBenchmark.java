@@ -0,0 +1,154 @@
+package com.suslov.cft.chat.benchmark;
+
+import com.suslov.cft.chat.common.Message;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import static com.suslov.cft.chat.common.Message.Type.*;
+
+// The users flood the chat without reading, so the server holds a deep outbound queue for each of them, and then the
+// server gets SIGTERM. Every chat message the server has published before the shutdown notice has to reach every user
+// before its connection is closed, and none may come after the notice
+public class ShutdownBenchmark {
+    private static final int PORT = 5104;
+    private static final long TIMEOUT_MILLIS = 120_000;
+    private static final long QUEUE_MILLIS = 1_000;
+    private static final String MARKER = "shutdown:";
+
+    private final int users;
+    private final int messagesPerUser;
+    private final List<String> engines;
+
+    public ShutdownBenchmark(int users, int messagesPerUser, List<String> engines) {
+        this.users = users;
+        this.messagesPerUser = messagesPerUser;
+        this.engines = engines;
+    }
+
+    public void run() throws IOException {
+        System.out.printf("users=%d messages per user=%d%n", users, messagesPerUser);
+        System.out.printf("%-8s %10s %10s %10s %10s %8s %8s %10s %10s%n", "engine", "sent", "published",
+                "notified", "closed", "lost", "late", "seconds", "result");
+        for (String engine : engines) {
+            // The queues hold the whole flood, so a message can only be lost by the shutdown itself
+            Map<String, String> settings = Map.of("engine", engine, "history.enabled", "false",
+                    "outbound.capacity", String.valueOf(users * messagesPerUser + 1024),
+                    "shutdown.drain.seconds", "60");
+            try (ServerProcess server = ServerProcess.start(PORT, settings)) {
+                new Run(server).execute(engine);
+            }
+        }
+    }
+
+    private static class Receiver {
+        private final Set<Long> seqs = new HashSet<>();
+        private boolean notified;
+        private int late;
+        private ChatConnection connection;
+
+        private void accept(Message message) {
+            if (message.getType() == SHUTDOWN) {
+                notified = true;
+            } else if (message.getType() == USER_TEXT && message.getText().startsWith(MARKER)) {
+                seqs.add(message.getSeq());
+                if (notified) {
+                    late++;
+                }
+            }
+        }
+    }
+
+    private class Run {
+        private final ServerProcess server;
+        private final List<Receiver> receivers = new ArrayList<>(users);
+        private int registered;
+        private int closed;
+
+        private Run(ServerProcess server) {
+            this.server = server;
+        }
+
+        private void execute(String engine) throws IOException {
+            try (Selector selector = Selector.open()) {
+                for (int i = 0; i < users; i++) {
+                    Receiver receiver = new Receiver();
+                    receiver.connection = ChatConnection.open(server.getPort(), "shutdown-user-" + i, message -> {
+                        if (message.getType() == USER_NAME && message.getVersion() != null) {
+                            registered++;
+                        }
+                        receiver.accept(message);
+                    });
+                    receiver.connection.register(selector);
+                    receivers.add(receiver);
+                }
+                for (Receiver receiver : receivers) {
+                    receiver.connection.send(new Message(USER_NAME, receiver.connection.getName()));
+                }
+                readWhile(selector, () -> registered < users);
+
+                // Nothing is read from here on until the server is told to stop
+                for (int message = 0; message < messagesPerUser; message++) {
+                    for (Receiver receiver : receivers) {
+                        receiver.connection.send(new Message(USER_TEXT, receiver.connection.getName(),
+                                MARKER + message));
+                    }
+                }
+                ServerProcess.sleep(QUEUE_MILLIS);
+                long start = System.nanoTime();
+                server.terminate();
+                readWhile(selector, () -> closed < users);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                report(engine, seconds);
+            } finally {
+                receivers.forEach(receiver -> receiver.connection.close());
+            }
+        }
+
+        // A connection closed by the server is counted and dropped from the selector, the others are still read
+        private void readWhile(Selector selector, BooleanSupplier condition) throws IOException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+                selector.select(100);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    ChatConnection connection = (ChatConnection) key.attachment();
+                    try {
+                        connection.read();
+                    } catch (IOException e) {
+                        key.cancel();
+                        connection.close();
+                        closed++;
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        }
+
+        // Any message some user has got was published, so every user must have got the same ones
+        private void report(String engine, double seconds) {
+            Set<Long> published = new HashSet<>();
+            receivers.forEach(receiver -> published.addAll(receiver.seqs));
+            long lost = 0;
+            int late = 0;
+            int notified = 0;
+            int closedByServer = 0;
+            for (Receiver receiver : receivers) {
+                lost += published.size() - receiver.seqs.size();
+                late += receiver.late;
+                notified += receiver.notified ? 1 : 0;
+                closedByServer += receiver.connection.isClosedByServer() ? 1 : 0;
+            }
+            boolean passed = lost == 0 && late == 0 && notified == users && closedByServer == users;
+            System.out.printf("%-8s %10d %10d %10d %10d %8d %8d %10.2f %10s%n", engine,
+                    (long) users * messagesPerUser, published.size(), notified, closedByServer, lost, late, seconds,
+                    passed ? "ok" : "FAILED");
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package com.suslov.cft.chat.client;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.suslov.cft.chat.client.views.ErrorNameWindow;
 import com.suslov.cft.chat.client.views.MainWindow;
 import com.suslov.cft.chat.client.views.NameWindow;
 import com.suslov.cft.chat.client.views.SettingsWindow;
+import com.suslov.cft.chat.common.Feature;
 import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.common.codec.MessageReader;
+import com.suslov.cft.chat.common.codec.WireFormat;
 import com.suslov.cft.chat.common.service.Connection;
 import com.suslov.cft.chat.common.service.PropertyUtil;
 import lombok.extern.slf4j.Slf4j;
@@ -15,25 +17,41 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.*;
 import java.net.Socket;
-import java.text.SimpleDateFormat;
+import java.net.SocketTimeoutException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
-import static com.suslov.cft.chat.common.Message.Type.USER_NAME;
-import static com.suslov.cft.chat.common.Message.Type.USER_TEXT;
+import static com.suslov.cft.chat.common.Message.Type.*;
 
 @Slf4j
 public class ChatClient {
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+    private static final long RECONNECT_INITIAL_DELAY_MILLIS = 500;
+    private static final long RECONNECT_MAX_DELAY_MILLIS = 30_000;
+    private static final long ACK_INTERVAL_NANOS = 100_000_000;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
+
     private MainWindow mainWindow;
     private ErrorNameWindow errorNameWindow;
     private SettingsWindow settingsWindow;
     private Socket socket;
-    private BufferedReader in;
-    private BufferedWriter out;
+    private MessageReader in;
+    private OutputStream out;
+    private volatile WireFormat format = WireFormat.JSON;
+    private volatile Set<Feature> serverFeatures = EnumSet.noneOf(Feature.class);
     private String userName;
     private List<String> users;
-    private final ObjectMapper mapper = new ObjectMapper();
+    private long usersVersion;
+    private volatile long lastSeq;
+    private volatile String sessionToken;
+    private volatile boolean closing;
     private Connection connection;
 
     public ChatClient() {
@@ -64,8 +82,7 @@ public class ChatClient {
                 return;
             }
             try {
-                out.write(mapper.writeValueAsString(new Message(USER_TEXT, userName, text)) + "\n");
-                out.flush();
+                writeMessage(createOutgoingMessage(text));
             } catch (IOException e) {
                 log.warn("[CLIENT] Message sending error: " + e.getMessage());
             }
@@ -81,8 +98,20 @@ public class ChatClient {
         errorNameWindow.setOkListener(e -> enterUserName());
     }
 
+    // A message of the form '@name text' is sent to that user only
+    private Message createOutgoingMessage(String text) {
+        int separator = text.indexOf(' ');
+        if (text.startsWith("@") && separator > 1 && separator < text.length() - 1) {
+            return new Message(DIRECT, userName, text.substring(separator + 1))
+                    .withRecipient(text.substring(1, separator));
+        }
+        return new Message(USER_TEXT, userName, text);
+    }
+
     private void launchConnectionToChat() {
         if (setUpServerConnection()) {
+            sessionToken = null;
+            negotiateProtocol();
             startIncomingThread();
             enterUserName();
         }
@@ -92,8 +121,10 @@ public class ChatClient {
         connection = (connection == null ? PropertyUtil.getConnection() : connection);
         try {
             socket = new Socket(connection.host(), connection.port());
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+            in = new MessageReader(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+            format = WireFormat.JSON;
+            serverFeatures = EnumSet.noneOf(Feature.class);
             log.info("[CLIENT] Connection with server by host '" + connection.host() + "' and port '" +
                     connection.port() + "' has established");
             return true;
@@ -121,16 +152,103 @@ public class ChatClient {
         nameWindow.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
     }
 
+    // The answer is awaited before anything else is sent, so both sides switch the wire format at the same point.
+    // Whatever comes before the answer is still plain JSON and is skipped
+    private void negotiateProtocol() {
+        try {
+            writeMessage(new Message(HELLO, null, Feature.format(EnumSet.allOf(Feature.class))));
+            long deadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT_MILLIS;
+            Message reply;
+            do {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException();
+                }
+                socket.setSoTimeout((int) remaining);
+                reply = in.read(format.getCodec());
+            } while (reply != null && reply.getType() != HELLO);
+            if (reply != null) {
+                Set<Feature> features = Feature.parse(reply.getText());
+                serverFeatures = features;
+                format = WireFormat.of(features);
+                log.info("[CLIENT] Protocol features accepted by server: '" + reply.getText() + "'");
+            }
+        } catch (SocketTimeoutException e) {
+            log.warn("[CLIENT] Server has not answered the protocol handshake, basic protocol is used");
+        } catch (IOException e) {
+            log.warn("[CLIENT] Protocol handshake error: " + e.getMessage());
+        } finally {
+            resetReadTimeout();
+        }
+    }
+
+    private void resetReadTimeout() {
+        try {
+            socket.setSoTimeout(0);
+        } catch (IOException e) {
+            log.warn("[CLIENT] Error resetting read timeout: " + e.getMessage());
+        }
+    }
+
     private void sendUserNameToServer() {
         try {
-            out.write(mapper.writeValueAsString(new Message(USER_NAME, userName)) + "\n");
-            out.flush();
+            // The server replays the history after the last message seen, so a reconnect gets only what was missed
+            writeMessage(new Message(USER_NAME, userName).withSeq(lastSeq > 0 ? lastSeq : null));
         } catch (IOException e) {
             userName = null;
             log.warn("[CLIENT] Error sending the entered name: " + e.getMessage());
         }
     }
 
+    // Full jitter spreads the clients dropped by one server restart over the whole backoff window, so they do not
+    // come back all at once. The session is resumed if the server still keeps it, otherwise the name is registered anew
+    private void reconnect() {
+        addServiceMessage("Connection to the server is lost, reconnecting...");
+        // A server shutting down waits for its clients to close the connection
+        closeSocket();
+        long maxDelay = RECONNECT_INITIAL_DELAY_MILLIS;
+        while (!closing) {
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(maxDelay + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (!closing && setUpServerConnection()) {
+                negotiateProtocol();
+                if (resumeSession()) {
+                    startIncomingThread();
+                    addServiceMessage("Connection to the server has been restored");
+                    return;
+                }
+            }
+            maxDelay = Math.min(RECONNECT_MAX_DELAY_MILLIS, maxDelay * 2);
+        }
+    }
+
+    private boolean resumeSession() {
+        if (sessionToken == null) {
+            sendUserNameToServer();
+            return userName != null;
+        }
+        try {
+            writeMessage(new Message(SESSION_RESUME, userName, sessionToken).withSeq(lastSeq > 0 ? lastSeq : null));
+            return true;
+        } catch (IOException e) {
+            log.warn("[CLIENT] Error resuming the session: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void addServiceMessage(String text) {
+        mainWindow.appendServiceMessage(text);
+    }
+
+    private synchronized void writeMessage(Message message) throws IOException {
+        out.write(format.getCodec().encode(message));
+        out.flush();
+    }
+
     private void setConnectionSettings(String userSettings) {
         String[] settings = userSettings.split(";");
         if (settings.length == 2) {
@@ -143,6 +261,11 @@ public class ChatClient {
     }
 
     private void close() {
+        closing = true;
+        closeSocket();
+    }
+
+    private void closeSocket() {
         if (socket != null && !socket.isClosed()) {
             try {
                 socket.close();
@@ -157,22 +280,64 @@ public class ChatClient {
         @Override
         public void run() {
             try {
-                String inputMessage;
-                while ((inputMessage = in.readLine()) != null) {
-                    Message message = mapper.readValue(inputMessage, Message.class);
+                Message message;
+                while ((message = in.read(format.getCodec())) != null) {
                     processReceivedMessage(message);
                 }
             } catch (IOException e) {
                 log.warn("[CLIENT] Error reading incoming message: " + e.getMessage());
             }
+            if (userName != null && !closing) {
+                reconnect();
+            }
         }
 
+        private long lastShownSeq;
+        private long lastAckNanos;
+
+        // Chat messages are numbered by the server, so a message the connection has already brought is skipped and
+        // the chat keeps the server order. The numbering may start over on a restarted server, so it is not compared
+        // across the connections
         private void processReceivedMessage(Message message) {
+            if (message.getSeq() != null) {
+                if (message.getSeq() <= lastShownSeq) {
+                    return;
+                }
+                lastShownSeq = message.getSeq();
+                lastSeq = message.getSeq();
+                acknowledge(message.getSeq());
+            }
             switch (message.getType()) {
                 case ERROR_NAME -> reportWrongNameEntered();
-                case WELCOME_USER, PARTING_USER -> addServiceMessageToChat(message.getText());
-                case USER_NAME -> addNewUserToList(message.getUserName());
+                case WELCOME_USER, PARTING_USER, ERROR_LIMIT, ERROR_DIRECT, SHUTDOWN ->
+                        addServiceMessage(message.getText());
+                case USER_NAME -> addNewUserToList(message.getUserName(), message.getVersion());
+                case PRESENCE_ADDED, PRESENCE_REMOVED -> applyUserListChange(message);
                 case USER_TEXT -> addNewMessageToChat(message);
+                case DIRECT -> addDirectMessageToChat(message);
+                case PING -> answerPing();
+                case SESSION -> sessionToken = message.getText();
+                case ERROR_SESSION -> registerAgain();
+            }
+        }
+
+        private void registerAgain() {
+            log.info("[CLIENT] Session has expired, the name is registered again");
+            sessionToken = null;
+            sendUserNameToServer();
+        }
+
+        // At most one message is acknowledged per interval, which is enough for the latency percentiles of the server
+        private void acknowledge(long seq) {
+            long now = System.nanoTime();
+            if (!serverFeatures.contains(Feature.ACK) || now - lastAckNanos < ACK_INTERVAL_NANOS) {
+                return;
+            }
+            lastAckNanos = now;
+            try {
+                writeMessage(new Message(ACK, null, null).withSeq(seq));
+            } catch (IOException e) {
+                log.warn("[CLIENT] Error acknowledging the message: " + e.getMessage());
             }
         }
 
@@ -181,19 +346,59 @@ public class ChatClient {
             errorNameWindow.setVisible(true);
         }
 
-        private void addServiceMessageToChat(String text) {
-            mainWindow.appendServiceMessage(text);
+        private void addNewUserToList(String userNames, Long version) {
+            users = new ArrayList<>(List.of(userNames.split(";")));
+            usersVersion = version == null ? 0 : version;
+            mainWindow.appendUsers(users);
         }
 
-        private void addNewUserToList(String userNames) {
-            users = List.of(userNames.split(";"));
-            mainWindow.appendUsers(users);
+        private void applyUserListChange(Message message) {
+            if (usersVersion == 0) {
+                return;
+            }
+            if (message.getVersion() != usersVersion + 1) {
+                requestUserList();
+                return;
+            }
+            usersVersion = message.getVersion();
+            if (message.getType() == PRESENCE_ADDED) {
+                users.add(message.getUserName());
+                mainWindow.addUser(message.getUserName());
+            } else {
+                users.remove(message.getUserName());
+                mainWindow.removeUser(message.getUserName());
+            }
+        }
+
+        private void requestUserList() {
+            usersVersion = 0;
+            try {
+                writeMessage(new Message(PRESENCE_REQUEST, userName));
+            } catch (IOException e) {
+                log.warn("[CLIENT] Error requesting the user list: " + e.getMessage());
+            }
+        }
+
+        private void answerPing() {
+            try {
+                writeMessage(new Message(PONG, null, null));
+            } catch (IOException e) {
+                log.warn("[CLIENT] Error answering the server ping: " + e.getMessage());
+            }
         }
 
         private void addNewMessageToChat(Message message) {
-            SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm:ss");
-            String formattedDate = dateFormat.format(new Date());
-            mainWindow.appendUserMessage(message.getUserName(), formattedDate, message.getText());
+            mainWindow.appendUserMessage(message.getUserName(), formatTime(message.getTimestamp()), message.getText());
+        }
+
+        private void addDirectMessageToChat(Message message) {
+            mainWindow.appendDirectMessage(message.getUserName(), message.getRecipient(),
+                    formatTime(message.getTimestamp()), message.getText());
+        }
+
+        // The time is stamped by the server when it takes the message in, older servers leave it out
+        private String formatTime(Long timestamp) {
+            return TIME_FORMAT.format(timestamp == null ? Instant.now() : Instant.ofEpochMilli(timestamp));
         }
     }
 }
\ No newline at end of file
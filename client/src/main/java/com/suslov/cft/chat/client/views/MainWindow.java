@@ -3,12 +3,24 @@ package com.suslov.cft.chat.client.views;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionListener;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MainWindow extends JFrame {
-
-    private JTextArea incoming;
-    private JTextArea users;
+    private static final int SCROLLBACK_LINES = 10_000;
+    private static final int FRAME_MILLIS = 16;
+
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private JList<String> incoming;
+    private MessageListModel messages;
+    private JScrollPane incomingScroller;
+    private Timer flushTimer;
+    private DefaultListModel<String> users;
     private JTextField outgoing;
     private JMenuItem newChatMenu;
     private JMenuItem settingsMenu;
@@ -22,21 +34,27 @@ public class MainWindow extends JFrame {
     }
 
     private void initializeWindow() {
-        incoming = new JTextArea(25, 50);
-        incoming.setLineWrap(true);
-        incoming.setWrapStyleWord(true);
-        incoming.setEditable(false);
-
-        JScrollPane incomingScroller = new JScrollPane(incoming);
+        // Every row is one line of the same height, so the list lays out and paints only the visible rows
+        messages = new MessageListModel(SCROLLBACK_LINES);
+        incoming = new JList<>(messages);
+        incoming.setFixedCellHeight(incoming.getFontMetrics(incoming.getFont()).getHeight());
+        incoming.setFixedCellWidth(560);
+        incoming.setVisibleRowCount(25);
+        incoming.setFocusable(false);
+        flushTimer = new Timer(FRAME_MILLIS, e -> flushMessages());
+        flushTimer.setRepeats(false);
+
+        incomingScroller = new JScrollPane(incoming);
         incomingScroller.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED);
         incomingScroller.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
 
-        users = new JTextArea(25, 20);
-        users.setLineWrap(true);
-        users.setWrapStyleWord(true);
-        users.setEditable(false);
+        users = new DefaultListModel<>();
+        JList<String> userList = new JList<>(users);
+        userList.setVisibleRowCount(25);
+        userList.setFixedCellWidth(220);
+        userList.setFocusable(false);
 
-        JScrollPane userScroller = new JScrollPane(users);
+        JScrollPane userScroller = new JScrollPane(userList);
         userScroller.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED);
         userScroller.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
 
@@ -103,19 +121,87 @@ public class MainWindow extends JFrame {
     }
 
     public void appendUsers(List<String> users) {
-        this.users.setText("");
-        for (String username : users) {
-            this.users.append(username + "\n");
-        }
+        List<String> snapshot = List.copyOf(users);
+        SwingUtilities.invokeLater(() -> {
+            this.users.clear();
+            this.users.addAll(snapshot);
+        });
+    }
+
+    public void addUser(String userName) {
+        SwingUtilities.invokeLater(() -> users.addElement(userName));
     }
 
+    public void removeUser(String userName) {
+        SwingUtilities.invokeLater(() -> users.removeElement(userName));
+    }
+
+    // May be called from any thread: the messages are queued and added to the list in one batch per frame
     public void appendUserMessage(String userName, String formattedDate, String text) {
-        incoming.append(userName + "\n");
-        incoming.append("(" + formattedDate + ") " + text + "\n");
+        appendMessage(userName + "\n(" + formattedDate + ") " + text);
+    }
+
+    public void appendDirectMessage(String userName, String recipient, String formattedDate, String text) {
+        appendMessage(userName + " -> " + recipient + " [direct]\n(" + formattedDate + ") " + text);
     }
 
     public void appendServiceMessage(String text) {
-        incoming.append(text + "\n");
+        appendMessage(text);
+    }
+
+    private void appendMessage(String text) {
+        pending.add(text);
+        if (flushScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(flushTimer::start);
+        }
+    }
+
+    // Only the messages that fit into the scrollback are wrapped, the older ones of a large batch would be dropped
+    private void flushMessages() {
+        flushScheduled.set(false);
+        ArrayDeque<String> batch = new ArrayDeque<>();
+        String text;
+        while ((text = pending.poll()) != null) {
+            batch.add(text);
+            if (batch.size() > messages.getCapacity()) {
+                batch.poll();
+            }
+        }
+        JScrollBar scrollBar = incomingScroller.getVerticalScrollBar();
+        boolean atBottom = scrollBar.getValue() + scrollBar.getVisibleAmount() >= scrollBar.getMaximum();
+        List<String> lines = new ArrayList<>();
+        FontMetrics metrics = incoming.getFontMetrics(incoming.getFont());
+        int width = incoming.getFixedCellWidth() - 2 * metrics.charWidth('m');
+        for (String message : batch) {
+            for (String paragraph : message.split("\n", -1)) {
+                wrap(paragraph, metrics, width, lines);
+            }
+        }
+        messages.addAll(lines);
+        if (atBottom && messages.getSize() > 0) {
+            incoming.ensureIndexIsVisible(messages.getSize() - 1);
+        }
+    }
+
+    private static void wrap(String paragraph, FontMetrics metrics, int width, List<String> lines) {
+        int start = 0;
+        int lastSpace = -1;
+        int lineWidth = 0;
+        for (int i = 0; i < paragraph.length(); i++) {
+            char c = paragraph.charAt(i);
+            lineWidth += metrics.charWidth(c);
+            if (lineWidth > width && i > start) {
+                int end = lastSpace > start ? lastSpace + 1 : i;
+                lines.add(paragraph.substring(start, end));
+                start = end;
+                lastSpace = -1;
+                lineWidth = metrics.stringWidth(paragraph.substring(start, i + 1));
+            }
+            if (c == ' ') {
+                lastSpace = i;
+            }
+        }
+        lines.add(paragraph.substring(start));
     }
 
     @Override
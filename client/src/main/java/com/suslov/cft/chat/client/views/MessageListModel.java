@@ -0,0 +1,50 @@
+package com.suslov.cft.chat.client.views;
+
+import javax.swing.*;
+import java.util.List;
+
+// Keeps the last lines of the chat in a ring buffer: the oldest lines are dropped as the new ones come, so a long
+// session takes a bounded amount of memory. Used on the event dispatch thread only
+class MessageListModel extends AbstractListModel<String> {
+    private final String[] lines;
+    private int head;
+    private int size;
+
+    MessageListModel(int capacity) {
+        this.lines = new String[capacity];
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return lines[(head + index) % lines.length];
+    }
+
+    int getCapacity() {
+        return lines.length;
+    }
+
+    void addAll(List<String> added) {
+        int count = Math.min(added.size(), lines.length);
+        int removed = Math.max(0, size + count - lines.length);
+        if (removed > 0) {
+            for (int i = 0; i < removed; i++) {
+                lines[(head + i) % lines.length] = null;
+            }
+            head = (head + removed) % lines.length;
+            size -= removed;
+            fireIntervalRemoved(this, 0, removed - 1);
+        }
+        int first = size;
+        for (String line : added.subList(added.size() - count, added.size())) {
+            lines[(head + size++) % lines.length] = line;
+        }
+        if (count > 0) {
+            fireIntervalAdded(this, first, size - 1);
+        }
+    }
+}
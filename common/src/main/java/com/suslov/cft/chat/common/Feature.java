@@ -0,0 +1,29 @@
+package com.suslov.cft.chat.common;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public enum Feature {
+    PRESENCE_DELTA, BINARY, HEARTBEAT, LIMITS, RESUME, DIRECT, ACK, COMPRESSION, SHUTDOWN;
+
+    public static Set<Feature> parse(String features) {
+        Set<Feature> result = EnumSet.noneOf(Feature.class);
+        if (features == null) {
+            return result;
+        }
+        for (String name : features.split(",")) {
+            for (Feature feature : values()) {
+                if (feature.name().equalsIgnoreCase(name.trim())) {
+                    result.add(feature);
+                }
+            }
+        }
+        return result;
+    }
+
+    public static String format(Collection<Feature> features) {
+        return features.stream().map(Feature::name).collect(Collectors.joining(","));
+    }
+}
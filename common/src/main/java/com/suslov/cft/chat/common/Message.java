@@ -1,12 +1,23 @@
 package com.suslov.cft.chat.common;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.With;
 
 @Getter
+@With
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class Message {
     private Type type;
     private String userName;
     private String text;
+    private Long version;
+    private Long seq;
+    private Long timestamp;
+    private String room;
+    private String recipient;
 
     public Message() {
     }
@@ -16,12 +27,17 @@ public class Message {
     }
 
     public Message(Type type, String userName, String text) {
-        this.type = type;
-        this.userName = userName;
-        this.text = text;
+        this(type, userName, text, null);
+    }
+
+    public Message(Type type, String userName, String text, Long version) {
+        this(type, userName, text, version, null, null, null, null);
     }
 
     public enum Type {
-        USER_NAME, WELCOME_USER, PARTING_USER, USER_TEXT, ERROR_NAME
+        USER_NAME, WELCOME_USER, PARTING_USER, USER_TEXT, ERROR_NAME,
+        HELLO, PRESENCE_ADDED, PRESENCE_REMOVED, PRESENCE_REQUEST, ROOM_JOIN, ROOM_LEAVE,
+        PING, PONG, ERROR_LIMIT, SESSION, SESSION_RESUME, ERROR_SESSION,
+        DIRECT, ERROR_DIRECT, ACK, SHUTDOWN
     }
-}
\ No newline at end of file
+}
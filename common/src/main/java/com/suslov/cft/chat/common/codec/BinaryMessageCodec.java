@@ -0,0 +1,156 @@
+package com.suslov.cft.chat.common.codec;
+
+import com.suslov.cft.chat.common.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frame layout: varint body length, then the body - type ordinal byte, flags byte marking the present
+ * fields and the present fields in flag order. Strings are a varint length followed by UTF-8 bytes, numbers
+ * are varints. New message types and fields may only be appended.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    private static final Message.Type[] TYPES = Message.Type.values();
+    private static final int USER_NAME = 1;
+    private static final int TEXT = 1 << 1;
+    private static final int VERSION = 1 << 2;
+    private static final int SEQ = 1 << 3;
+    private static final int TIMESTAMP = 1 << 4;
+    private static final int ROOM = 1 << 5;
+    private static final int RECIPIENT = 1 << 6;
+
+    @Override
+    public byte[] encode(Message message) {
+        byte[] userName = toBytes(message.getUserName());
+        byte[] text = toBytes(message.getText());
+        byte[] room = toBytes(message.getRoom());
+        byte[] recipient = toBytes(message.getRecipient());
+        int flags = (userName != null ? USER_NAME : 0) | (text != null ? TEXT : 0)
+                | (message.getVersion() != null ? VERSION : 0) | (message.getSeq() != null ? SEQ : 0)
+                | (message.getTimestamp() != null ? TIMESTAMP : 0) | (room != null ? ROOM : 0)
+                | (recipient != null ? RECIPIENT : 0);
+
+        int bodyLength = 2 + sizeOf(userName) + sizeOf(text) + sizeOf(message.getVersion())
+                + sizeOf(message.getSeq()) + sizeOf(message.getTimestamp()) + sizeOf(room) + sizeOf(recipient);
+        ByteBuffer frame = ByteBuffer.allocate(varLongSize(bodyLength) + bodyLength);
+        putVarLong(frame, bodyLength);
+        frame.put((byte) message.getType().ordinal());
+        frame.put((byte) flags);
+        putBytes(frame, userName);
+        putBytes(frame, text);
+        putNumber(frame, message.getVersion());
+        putNumber(frame, message.getSeq());
+        putNumber(frame, message.getTimestamp());
+        putBytes(frame, room);
+        putBytes(frame, recipient);
+        return frame.array();
+    }
+
+    @Override
+    public Message decode(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        long bodyLength = readVarLong(buffer);
+        if (bodyLength < 0) {
+            buffer.position(start);
+            return null;
+        }
+        if (bodyLength < 2 || bodyLength > MAX_FRAME_LENGTH) {
+            throw new IOException("Malformed binary frame length " + bodyLength);
+        }
+        if (buffer.remaining() < bodyLength) {
+            buffer.position(start);
+            return null;
+        }
+        int end = buffer.position() + (int) bodyLength;
+        int typeIndex = buffer.get() & 0xFF;
+        if (typeIndex >= TYPES.length) {
+            throw new IOException("Unknown binary message type " + typeIndex);
+        }
+        int flags = buffer.get();
+        String userName = (flags & USER_NAME) != 0 ? readString(buffer, end) : null;
+        String text = (flags & TEXT) != 0 ? readString(buffer, end) : null;
+        Long version = (flags & VERSION) != 0 ? readVarLong(buffer) : null;
+        Long seq = (flags & SEQ) != 0 ? readVarLong(buffer) : null;
+        Long timestamp = (flags & TIMESTAMP) != 0 ? readVarLong(buffer) : null;
+        String room = (flags & ROOM) != 0 ? readString(buffer, end) : null;
+        String recipient = (flags & RECIPIENT) != 0 ? readString(buffer, end) : null;
+        buffer.position(end);
+        return new Message(TYPES[typeIndex], userName, text, version, seq, timestamp, room, recipient);
+    }
+
+    private static byte[] toBytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int sizeOf(byte[] value) {
+        return value == null ? 0 : varLongSize(value.length) + value.length;
+    }
+
+    private static int sizeOf(Long value) {
+        return value == null ? 0 : varLongSize(value);
+    }
+
+    private static void putNumber(ByteBuffer frame, Long value) {
+        if (value != null) {
+            putVarLong(frame, value);
+        }
+    }
+
+    private static void putBytes(ByteBuffer frame, byte[] value) {
+        if (value != null) {
+            putVarLong(frame, value.length);
+            frame.put(value);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer, int end) throws IOException {
+        long length = readVarLong(buffer);
+        if (length < 0 || buffer.position() + length > end) {
+            throw new IOException("Malformed binary string field");
+        }
+        if (!buffer.hasArray()) {
+            byte[] bytes = new byte[(int) length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), (int) length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + (int) length);
+        return value;
+    }
+
+    static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    // Returns -1 if the buffer ends in the middle of the varint
+    static long readVarLong(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed binary varint");
+    }
+}
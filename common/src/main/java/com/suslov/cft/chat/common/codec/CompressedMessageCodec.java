@@ -0,0 +1,156 @@
+package com.suslov.cft.chat.common.codec;
+
+import com.suslov.cft.chat.common.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Wraps the frames of another codec. Frame layout: varint header - the body length shifted left by one with the
+ * compression flag in the lowest bit, then the body. A frame of the wrapped codec shorter than the threshold, or one
+ * that does not get smaller, is the body as is; otherwise the body is the varint length of the wrapped frame followed
+ * by the frame deflated with a preset dictionary of the field and type names. Every frame is compressed on its own,
+ * so one compressed frame can be sent to all the recipients. Deflaters and inflaters hold native memory and are
+ * costly to create, so they are pooled rather than kept per connection or per thread.
+ */
+public class CompressedMessageCodec implements MessageCodec {
+    public static final int DEFAULT_THRESHOLD = 256;
+    private static final byte[] DICTIONARY = createDictionary();
+
+    private final MessageCodec codec;
+    private final int threshold;
+    private final Queue<Deflater> deflaters;
+    private final Queue<Inflater> inflaters;
+
+    public CompressedMessageCodec(MessageCodec codec, int threshold) {
+        this.codec = codec;
+        this.threshold = threshold;
+        this.deflaters = new ConcurrentLinkedQueue<>();
+        this.inflaters = new ConcurrentLinkedQueue<>();
+    }
+
+    @Override
+    public byte[] encode(Message message) {
+        byte[] frame = codec.encode(message);
+        if (frame.length >= threshold) {
+            byte[] compressed = deflate(frame);
+            if (compressed.length < frame.length) {
+                return wrap(compressed, frame.length, true);
+            }
+        }
+        return wrap(frame, 0, false);
+    }
+
+    @Override
+    public Message decode(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        long header = BinaryMessageCodec.readVarLong(buffer);
+        if (header < 0) {
+            buffer.position(start);
+            return null;
+        }
+        long bodyLength = header >>> 1;
+        if (bodyLength > MAX_FRAME_LENGTH) {
+            throw new IOException("Malformed compressed frame length " + bodyLength);
+        }
+        if (buffer.remaining() < bodyLength) {
+            buffer.position(start);
+            return null;
+        }
+        ByteBuffer body = buffer.slice(buffer.position(), (int) bodyLength);
+        buffer.position(buffer.position() + (int) bodyLength);
+        Message message = codec.decode((header & 1) != 0 ? inflate(body) : body);
+        if (message == null) {
+            throw new IOException("Truncated frame inside a compressed frame");
+        }
+        return message;
+    }
+
+    private byte[] deflate(byte[] frame) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED, true);
+        }
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(frame);
+            deflater.finish();
+            byte[] compressed = new byte[frame.length];
+            int length = 0;
+            while (!deflater.finished() && length < compressed.length) {
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            // Not finished means the frame does not get smaller, so it is sent as is
+            return deflater.finished() ? Arrays.copyOf(compressed, length) : frame;
+        } finally {
+            deflater.reset();
+            deflaters.add(deflater);
+        }
+    }
+
+    private ByteBuffer inflate(ByteBuffer body) throws IOException {
+        long length = BinaryMessageCodec.readVarLong(body);
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Malformed compressed frame");
+        }
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        try {
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(body);
+            byte[] frame = new byte[(int) length];
+            int inflated = 0;
+            while (inflated < frame.length) {
+                int count = inflater.inflate(frame, inflated, frame.length - inflated);
+                if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != frame.length) {
+                throw new IOException("Compressed frame is shorter than its declared length " + length);
+            }
+            return ByteBuffer.wrap(frame);
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed compressed frame", e);
+        } finally {
+            inflater.reset();
+            inflaters.add(inflater);
+        }
+    }
+
+    private static byte[] wrap(byte[] body, int frameLength, boolean compressed) {
+        int length = body.length + (compressed ? BinaryMessageCodec.varLongSize(frameLength) : 0);
+        long header = ((long) length << 1) | (compressed ? 1 : 0);
+        ByteBuffer frame = ByteBuffer.allocate(BinaryMessageCodec.varLongSize(header) + length);
+        BinaryMessageCodec.putVarLong(frame, header);
+        if (compressed) {
+            BinaryMessageCodec.putVarLong(frame, frameLength);
+        }
+        frame.put(body);
+        return frame.array();
+    }
+
+    // Deflate finds the matches closer to the end of the dictionary with shorter codes, so the most common strings
+    // are put last. Both sides must build the same dictionary, so the types added after it stay out of it
+    private static byte[] createDictionary() {
+        StringBuilder dictionary = new StringBuilder();
+        for (Message.Type type : EnumSet.range(Message.Type.USER_NAME, Message.Type.ACK)) {
+            dictionary.append("{\"type\":\"").append(type.name()).append("\",");
+        }
+        dictionary.append("\"version\":\"room\":\"\",\"recipient\":\"\",\"timestamp\":\"seq\":");
+        dictionary.append("-".repeat(50)).append("\\n");
+        dictionary.append("\"},\n{\"type\":\"USER_TEXT\",\"userName\":\"\",\"text\":\"");
+        return dictionary.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,200 @@
+package com.suslov.cft.chat.common.codec;
+
+import com.fasterxml.jackson.core.*;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.suslov.cft.chat.common.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes the messages with the streaming parser and generator right over the frame bytes, without
+ * databind reflection and without an intermediate String per message. Field names are canonicalized by the
+ * parser, so they are matched without allocating, and the message type is looked up among the enum constants
+ * straight from the parser characters. Unknown fields are skipped.
+ */
+public class JsonMessageCodec implements MessageCodec {
+    private static final Message.Type[] TYPES = Message.Type.values();
+    private static final SerializedString[] TYPE_NAMES = new SerializedString[TYPES.length];
+    private static final SerializedString TYPE = new SerializedString("type");
+    private static final SerializedString USER_NAME = new SerializedString("userName");
+    private static final SerializedString TEXT = new SerializedString("text");
+    private static final SerializedString VERSION = new SerializedString("version");
+    private static final SerializedString SEQ = new SerializedString("seq");
+    private static final SerializedString TIMESTAMP = new SerializedString("timestamp");
+    private static final SerializedString ROOM = new SerializedString("room");
+    private static final SerializedString RECIPIENT = new SerializedString("recipient");
+
+    static {
+        for (Message.Type type : TYPES) {
+            TYPE_NAMES[type.ordinal()] = new SerializedString(type.name());
+        }
+    }
+
+    private final JsonFactory factory;
+    private final boolean legacy;
+
+    // The legacy variant writes only the fields known to clients that do not take part in the handshake
+    public JsonMessageCodec(boolean legacy) {
+        this.factory = new JsonFactory();
+        this.legacy = legacy;
+    }
+
+    @Override
+    public byte[] encode(Message message) {
+        ByteArrayBuilder frame = new ByteArrayBuilder(factory._getBufferRecycler());
+        try (JsonGenerator generator = factory.createGenerator(frame)) {
+            generator.writeStartObject();
+            if (message.getType() != null) {
+                generator.writeFieldName(TYPE);
+                generator.writeString(TYPE_NAMES[message.getType().ordinal()]);
+            }
+            writeString(generator, USER_NAME, message.getUserName());
+            writeString(generator, TEXT, message.getText());
+            if (!legacy) {
+                writeNumber(generator, VERSION, message.getVersion());
+                writeNumber(generator, SEQ, message.getSeq());
+                writeNumber(generator, TIMESTAMP, message.getTimestamp());
+                writeString(generator, ROOM, message.getRoom());
+                writeString(generator, RECIPIENT, message.getRecipient());
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Message of type '" + message.getType() + "' cannot be encoded", e);
+        }
+        frame.write('\n');
+        byte[] bytes = frame.toByteArray();
+        frame.release();
+        return bytes;
+    }
+
+    @Override
+    public Message decode(ByteBuffer buffer) throws IOException {
+        int lineStart = buffer.position();
+        for (int i = lineStart; i < buffer.limit(); i++) {
+            if (buffer.get(i) != '\n') {
+                continue;
+            }
+            if (i == lineStart) {
+                lineStart = i + 1;
+                buffer.position(lineStart);
+                continue;
+            }
+            buffer.position(i + 1);
+            try (JsonParser parser = factory.createParser(buffer.array(), buffer.arrayOffset() + lineStart,
+                    i - lineStart)) {
+                return read(parser);
+            }
+        }
+        if (buffer.limit() - lineStart > MAX_FRAME_LENGTH) {
+            throw new IOException("Incoming message exceeds " + MAX_FRAME_LENGTH + " bytes");
+        }
+        return null;
+    }
+
+    private static Message read(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Message is not a JSON object");
+        }
+        Message.Type type = null;
+        String userName = null;
+        String text = null;
+        Long version = null;
+        Long seq = null;
+        Long timestamp = null;
+        String room = null;
+        String recipient = null;
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "type" -> type = readType(parser);
+                case "userName" -> userName = readString(parser, token);
+                case "text" -> text = readString(parser, token);
+                case "version" -> version = readNumber(parser, token);
+                case "seq" -> seq = readNumber(parser, token);
+                case "timestamp" -> timestamp = readNumber(parser, token);
+                case "room" -> room = readString(parser, token);
+                case "recipient" -> recipient = readString(parser, token);
+                default -> parser.skipChildren();
+            }
+        }
+        if (parser.currentToken() != JsonToken.END_OBJECT) {
+            throw new JsonParseException(parser, "Message is not a JSON object");
+        }
+        if (type == null) {
+            throw new JsonParseException(parser, "Message has no type");
+        }
+        return new Message(type, userName, text, version, seq, timestamp, room, recipient);
+    }
+
+    private static Message.Type readType(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.VALUE_STRING) {
+            throw new JsonParseException(parser, "Message type is not a string");
+        }
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        for (Message.Type type : TYPES) {
+            if (matches(type.name(), chars, offset, length)) {
+                return type;
+            }
+        }
+        throw new JsonParseException(parser, "Unknown message type '" + parser.getText() + "'");
+    }
+
+    private static boolean matches(String name, char[] chars, int offset, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String readString(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (!token.isScalarValue()) {
+            throw new JsonParseException(parser, "Field '" + parser.currentName() + "' is not a string");
+        }
+        return parser.getValueAsString();
+    }
+
+    private static Long readNumber(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            try {
+                return Long.parseLong(parser.getText());
+            } catch (NumberFormatException e) {
+                throw new JsonParseException(parser, "Field '" + parser.currentName() + "' is not a number", e);
+            }
+        }
+        throw new JsonParseException(parser, "Field '" + parser.currentName() + "' is not a number");
+    }
+
+    private static void writeString(JsonGenerator generator, SerializedString name, String value)
+            throws IOException {
+        if (value != null) {
+            generator.writeFieldName(name);
+            generator.writeString(value);
+        }
+    }
+
+    private static void writeNumber(JsonGenerator generator, SerializedString name, Long value) throws IOException {
+        if (value != null) {
+            generator.writeFieldName(name);
+            generator.writeNumber(value);
+        }
+    }
+}
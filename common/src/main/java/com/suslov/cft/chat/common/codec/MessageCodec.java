@@ -0,0 +1,15 @@
+package com.suslov.cft.chat.common.codec;
+
+import com.suslov.cft.chat.common.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface MessageCodec {
+    int MAX_FRAME_LENGTH = 1024 * 1024;
+
+    byte[] encode(Message message);
+
+    // Decodes one message from the buffer in read mode or returns null if the frame is not complete yet
+    Message decode(ByteBuffer buffer) throws IOException;
+}
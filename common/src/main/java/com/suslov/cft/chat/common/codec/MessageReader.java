@@ -0,0 +1,47 @@
+package com.suslov.cft.chat.common.codec;
+
+import com.suslov.cft.chat.common.Message;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+public class MessageReader {
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    private final InputStream in;
+    private ByteBuffer buffer;
+
+    public MessageReader(InputStream in) {
+        this.in = in;
+        this.buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE).flip();
+    }
+
+    // Returns null at the end of the stream
+    public Message read(MessageCodec codec) throws IOException {
+        while (true) {
+            Message message = codec.decode(buffer);
+            if (message != null) {
+                return message;
+            }
+            if (!fill()) {
+                return null;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+            grown.put(buffer.flip());
+            buffer = grown;
+        }
+        int read = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        if (read > 0) {
+            buffer.position(buffer.position() + read);
+        }
+        buffer.flip();
+        return read >= 0;
+    }
+}
@@ -0,0 +1,30 @@
+package com.suslov.cft.chat.common.codec;
+
+import com.suslov.cft.chat.common.Feature;
+import lombok.Getter;
+
+import java.util.Set;
+
+@Getter
+public enum WireFormat {
+    LEGACY_JSON(new JsonMessageCodec(true)),
+    JSON(new JsonMessageCodec(false)),
+    BINARY(new BinaryMessageCodec()),
+    COMPRESSED_JSON(new CompressedMessageCodec(new JsonMessageCodec(false), CompressedMessageCodec.DEFAULT_THRESHOLD)),
+    COMPRESSED_BINARY(new CompressedMessageCodec(new BinaryMessageCodec(), CompressedMessageCodec.DEFAULT_THRESHOLD));
+
+    private final MessageCodec codec;
+
+    WireFormat(MessageCodec codec) {
+        this.codec = codec;
+    }
+
+    // The format both sides switch to once the handshake has agreed on the features
+    public static WireFormat of(Set<Feature> features) {
+        boolean compressed = features.contains(Feature.COMPRESSION);
+        if (features.contains(Feature.BINARY)) {
+            return compressed ? COMPRESSED_BINARY : BINARY;
+        }
+        return compressed ? COMPRESSED_JSON : JSON;
+    }
+}
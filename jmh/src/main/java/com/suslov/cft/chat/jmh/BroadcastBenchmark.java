@@ -0,0 +1,83 @@
+package com.suslov.cft.chat.jmh;
+
+import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.common.codec.WireFormat;
+import com.suslov.cft.chat.server.ClientConnection;
+import com.suslov.cft.chat.server.EncodedMessage;
+import com.suslov.cft.chat.server.Frame;
+import com.suslov.cft.chat.server.OutboundQueue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.suslov.cft.chat.common.Message.Type.USER_TEXT;
+
+// One message fanned out to N connections whose writers are replaced by draining the queues in place
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    @Param({"10", "100", "1000"})
+    private int sinks;
+    @Param({"JSON", "BINARY"})
+    private WireFormat format;
+
+    private List<SinkConnection> connections;
+    private List<Frame> drained;
+    private Message message;
+
+    @Setup
+    public void setUp() {
+        connections = new ArrayList<>(sinks);
+        for (int i = 0; i < sinks; i++) {
+            SinkConnection connection = new SinkConnection(i);
+            connection.sendAndSwitchFormat(new EncodedMessage(new Message(Message.Type.HELLO, null, "")), format);
+            connection.drain(new ArrayList<>());
+            connections.add(connection);
+        }
+        drained = new ArrayList<>();
+        message = new Message(USER_TEXT, "benchmark-user", "x".repeat(100));
+    }
+
+    @Benchmark
+    public int broadcast() {
+        EncodedMessage encodedMessage = new EncodedMessage(message);
+        for (SinkConnection connection : connections) {
+            connection.send(encodedMessage);
+        }
+        int frames = 0;
+        for (SinkConnection connection : connections) {
+            frames += connection.drain(drained);
+            drained.clear();
+        }
+        return frames;
+    }
+
+    private static class SinkConnection extends ClientConnection {
+
+        private SinkConnection(int port) {
+            super("sink", port, new OutboundQueue(1024, OutboundQueue.OverflowPolicy.DROP_OLDEST));
+        }
+
+        private int drain(List<Frame> batch) {
+            return outbound.drainTo(batch, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        protected void signalWriter() {
+        }
+
+        @Override
+        protected void abort() {
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.suslov.cft.chat.jmh;
+
+import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.common.codec.WireFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.suslov.cft.chat.common.Message.Type.USER_NAME;
+import static com.suslov.cft.chat.common.Message.Type.USER_TEXT;
+
+// CPU against bandwidth of the frame compression: the encoding and decoding time of every format, with the frame
+// size printed when the trial starts. A broadcast encodes a frame once for all the recipients, so the compression is
+// paid once per message and the decompression once per recipient
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+    private static final String[] WORDS = {"the", "chat", "server", "message", "hello", "and", "is", "to", "room",
+            "user", "we", "will", "deploy", "today", "after", "lunch", "ok", "thanks", "see", "you"};
+
+    @Param({"CHAT_64", "CHAT_1024", "ROSTER_1000"})
+    private Payload payload;
+    @Param({"JSON", "COMPRESSED_JSON", "BINARY", "COMPRESSED_BINARY"})
+    private WireFormat format;
+
+    private Message message;
+    private byte[] frame;
+
+    @Setup
+    public void setUp() {
+        message = payload.create(new Random(42));
+        frame = format.getCodec().encode(message);
+        System.out.printf("%n%s %s: %d bytes per frame%n", payload, format, frame.length);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return format.getCodec().encode(message);
+    }
+
+    @Benchmark
+    public Message decode() throws IOException {
+        return format.getCodec().decode(ByteBuffer.wrap(frame));
+    }
+
+    public enum Payload {
+        CHAT_64, CHAT_1024, ROSTER_1000;
+
+        private Message create(Random random) {
+            if (this == ROSTER_1000) {
+                StringBuilder names = new StringBuilder();
+                for (int i = 0; i < 1000; i++) {
+                    names.append(i == 0 ? "" : ";").append(WORDS[random.nextInt(WORDS.length)]).append('-').append(i);
+                }
+                return new Message(USER_NAME, names.toString(), names.toString(), 1000L);
+            }
+            int length = this == CHAT_64 ? 64 : 1024;
+            StringBuilder text = new StringBuilder();
+            while (text.length() < length) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            return new Message(USER_TEXT, "benchmark-user", text.substring(0, length))
+                    .withSeq(123_456L).withTimestamp(System.currentTimeMillis());
+        }
+    }
+}
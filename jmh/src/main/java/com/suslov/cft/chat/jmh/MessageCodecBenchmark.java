@@ -0,0 +1,65 @@
+package com.suslov.cft.chat.jmh;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.common.codec.WireFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static com.suslov.cft.chat.common.Message.Type.USER_TEXT;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+    @Param({"32", "1024"})
+    private int textLength;
+    @Param({"LEGACY_JSON", "JSON", "BINARY"})
+    private WireFormat format;
+
+    private ObjectMapper mapper;
+    private Message message;
+    private String json;
+    private byte[] frame;
+
+    @Setup
+    public void setUp() {
+        mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        message = new Message(USER_TEXT, "benchmark-user", "x".repeat(textLength))
+                .withSeq(123_456L).withTimestamp(System.currentTimeMillis());
+        try {
+            json = mapper.writeValueAsString(message);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+        frame = format.getCodec().encode(message);
+    }
+
+    @Benchmark
+    public String objectMapperSerialize() throws JsonProcessingException {
+        return mapper.writeValueAsString(message);
+    }
+
+    @Benchmark
+    public Message objectMapperDeserialize() throws JsonProcessingException {
+        return mapper.readValue(json, Message.class);
+    }
+
+    @Benchmark
+    public byte[] codecEncode() {
+        return format.getCodec().encode(message);
+    }
+
+    @Benchmark
+    public Message codecDecode() throws IOException {
+        return format.getCodec().decode(ByteBuffer.wrap(frame));
+    }
+}
@@ -0,0 +1,50 @@
+package com.suslov.cft.chat.jmh;
+
+import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.common.codec.WireFormat;
+import com.suslov.cft.chat.server.EncodedMessage;
+import com.suslov.cft.chat.server.Frame;
+import com.suslov.cft.chat.server.Roster;
+import com.suslov.cft.chat.server.ServiceMessages;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.suslov.cft.chat.common.Message.Type.WELCOME_USER;
+
+// The service message as the server frames it for every user on a join, and the roster rebuilt on a join
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PresenceBenchmark {
+    @Param({"10", "1000"})
+    private int users;
+
+    private List<String> userNames;
+    private long version;
+
+    @Setup
+    public void setUp() {
+        userNames = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            userNames.add("user-" + i);
+        }
+    }
+
+    @Benchmark
+    public Frame serviceMessage() {
+        String userName = userNames.get(0);
+        return new EncodedMessage(new Message(WELCOME_USER, userName, ServiceMessages.welcome(userName)))
+                .frame(WireFormat.JSON);
+    }
+
+    @Benchmark
+    public Roster rosterJoin() {
+        return Roster.of(++version, userNames);
+    }
+}
@@ -1,176 +1,671 @@
 package com.suslov.cft.chat.server;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.suslov.cft.chat.common.Feature;
 import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.common.codec.WireFormat;
 import com.suslov.cft.chat.common.exceptions.ConnectException;
-import com.suslov.cft.chat.common.service.Connection;
 import com.suslov.cft.chat.common.service.PropertyUtil;
+import com.suslov.cft.chat.server.engine.NioServerEngine;
+import com.suslov.cft.chat.server.cluster.ClusterBus;
+import com.suslov.cft.chat.server.cluster.LoopbackClusterBus;
+import com.suslov.cft.chat.server.cluster.TcpClusterBus;
+import com.suslov.cft.chat.server.engine.SocketServerEngine;
+import com.suslov.cft.chat.server.history.HistoryLog;
+import com.suslov.cft.chat.server.metrics.MetricsReporter;
+import com.suslov.cft.chat.server.metrics.ServerMetrics;
+import com.suslov.cft.chat.server.service.ServerSettings;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.log4j.LogManager;
 
-import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 import static com.suslov.cft.chat.common.Message.Type.*;
 
 @Slf4j
 public class ChatServer {
+    private static final long ABORT_TIMEOUT_MILLIS = 1_000;
 
-    private final Map<ClientConnection, String> clients;
-    private final List<String> usersInOrder;
-    private final ObjectMapper mapper;
+    private final Set<ClientConnection> clients;
+    private final UserRegistry registry;
+    private final RoomRegistry rooms;
+    @Getter
+    private final ServerSettings settings;
+    private final ReentrantLock presenceLock;
+    private final ReentrantLock sequenceLock;
+    private final HistoryLog history;
+    private final HistoryReplayer replayer;
+    private final Cluster cluster;
+    private final IdleMonitor idleMonitor;
+    private final RateLimiter rateLimiter;
+    private final SessionRegistry sessions;
+    private final DeliveryTracker deliveries;
+    @Getter
+    private final ServerMetrics metrics;
+    private final MetricsReporter metricsReporter;
+    private final ServerEngine engine;
+    private final AtomicBoolean stopping;
 
     public ChatServer() {
-        this.clients = new ConcurrentHashMap<>();
-        this.usersInOrder = Collections.synchronizedList(new ArrayList<>());
-        this.mapper = new ObjectMapper();
+        this(ServerSettings.load());
+    }
+
+    public ChatServer(ServerSettings settings) {
+        this.clients = ConcurrentHashMap.newKeySet();
+        this.registry = new UserRegistry();
+        this.rooms = new RoomRegistry();
+        this.settings = settings;
+        this.presenceLock = new ReentrantLock();
+        this.history = new HistoryLog(Path.of(settings.getHistoryDir()), settings.isHistoryEnabled(),
+                settings.getHistorySegmentBytes(), settings.getHistoryRetentionSegments(),
+                settings.getHistoryMemoryMessages(), settings.getHistoryFlushMillis());
+        this.sequenceLock = new ReentrantLock();
+        this.replayer = new HistoryReplayer(history, sequenceLock, settings.getHistoryReplayBatch(),
+                settings.getHistoryReplayThreads(), settings.getOutboundCapacity() / 2);
+        this.cluster = new Cluster(this, createClusterBus());
+        this.rateLimiter = new RateLimiter(settings);
+        this.sessions = new SessionRegistry(settings.getSessionGraceSeconds() * 1000L);
+        this.deliveries = new DeliveryTracker();
+        this.idleMonitor = new IdleMonitor(settings.getIdleTickMillis(), settings.getIdleReadSeconds() * 1000L,
+                settings.getIdleWriteSeconds() * 1000L);
+        this.metrics = new ServerMetrics(clients::size, registry::joinedSize, settings.getMetricsUserSeries());
+        this.metricsReporter = new MetricsReporter(metrics, settings.getMetricsPort(), settings.getMetricsLogSeconds());
+        this.engine = createEngine();
+        this.stopping = new AtomicBoolean();
     }
 
     public void launch() {
+        launch(PropertyUtil.getConnection().port());
+    }
+
+    public void launch(int port) {
         try {
-            start();
+            start(port);
         } catch (ConnectException exp) {
             log.error(exp.getMessage() + " : " + exp.getCause().getMessage());
         }
     }
 
-    private void start() {
-        Connection connection = PropertyUtil.getConnection();
-        try (ServerSocket serverSocket = new ServerSocket(connection.port())) {
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                try {
-                    clients.put(new ClientConnection(clientSocket), "");
-                    log.info("[SERVER] Client connection from host '" + clientSocket.getInetAddress().getHostName()
-                            + "' and port '" + clientSocket.getPort() + "' has added");
-                } catch (IOException e) {
-                    log.warn("[SERVER] Client connection error: " + e.getMessage());
-                    clientSocket.close();
-                }
-            }
+    private void start(int port) {
+        log.info("[SERVER] Server is starting on port '" + port + "' with '"
+                + settings.getEngine().name().toLowerCase() + "' engine");
+        try {
+            history.start();
+            cluster.start();
+            metricsReporter.start();
+            idleMonitor.start();
+            engine.start(port);
         } catch (IOException e) {
             throw new ConnectException("[SERVER] Server startup error", e);
         }
     }
 
-    class ClientConnection extends Thread {
-        private final Socket clientSocket;
-        private final BufferedReader in;
-        private final BufferedWriter out;
+    // The listener is closed first, then every client is told and its connection writes out everything queued for it
+    // and shuts down its output. Each connection is closed by its own thread as its client closes the other side, the
+    // ones still open at the drain deadline are aborted. The history and the log are flushed last
+    public void shutdown() {
+        if (!stopping.compareAndSet(false, true)) {
+            return;
+        }
+        log.info("[SERVER] Server is shutting down, {} connections are drained", clients.size());
+        engine.stop();
+        // Taken under the sequence lock, so the notice comes after every chat message already published
+        sequenceLock.lock();
+        try {
+            EncodedMessage notice = new EncodedMessage(new Message(SHUTDOWN, null, ServiceMessages.shutdown()));
+            for (ClientConnection client : clients) {
+                if (client.supports(Feature.SHUTDOWN)) {
+                    client.send(notice);
+                }
+                client.finish();
+            }
+        } finally {
+            sequenceLock.unlock();
+        }
+        awaitClosed(TimeUnit.SECONDS.toMillis(settings.getShutdownDrainSeconds()));
+        if (!clients.isEmpty()) {
+            log.warn("[SERVER] {} connections have not closed in time and are aborted with {} frames not written",
+                    clients.size(), clients.stream().mapToInt(ClientConnection::getQueueDepth).sum());
+            clients.forEach(ClientConnection::abort);
+            awaitClosed(ABORT_TIMEOUT_MILLIS);
+        }
+        history.close();
+        cluster.close();
+        metricsReporter.close();
+        log.info("[SERVER] Server has stopped");
+        LogManager.shutdown();
+    }
 
-        public ClientConnection(Socket clientSocket) throws IOException {
-            this.clientSocket = clientSocket;
-            this.in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            this.out = new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream()));
-            start();
+    private void awaitClosed(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            while (!clients.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+    }
 
-        @Override
-        public void run() {
-            try {
-                String inputMessage;
-                while ((inputMessage = in.readLine()) != null) {
-                    Message message = mapper.readValue(inputMessage, Message.class);
-                    processReceivedMessage(message);
+    // A standalone server is a cluster of one node
+    private ClusterBus createClusterBus() {
+        String nodeId = settings.getClusterNode();
+        return switch (settings.getClusterBus()) {
+            case NONE -> new LoopbackClusterBus("standalone-" + nodeId, nodeId);
+            case LOOPBACK -> new LoopbackClusterBus(settings.getClusterGroup(), nodeId);
+            case TCP -> new TcpClusterBus(nodeId, settings.getClusterBind(), settings.getClusterPort(),
+                    settings.getClusterPeers(), settings.getClusterSecret());
+        };
+    }
+
+    private ServerEngine createEngine() {
+        return switch (settings.getEngine()) {
+            case THREAD -> SocketServerEngine.withPlatformThreads(this);
+            case VIRTUAL -> SocketServerEngine.withVirtualThreads(this);
+            case NIO -> new NioServerEngine(this, settings.getNioThreads());
+        };
+    }
+
+    public OutboundQueue createOutboundQueue() {
+        return new OutboundQueue(settings.getOutboundCapacity(), settings.getOverflowPolicy());
+    }
+
+    public void addConnection(ClientConnection client) {
+        client.setRateLimit(rateLimiter.createConnectionBucket());
+        clients.add(client);
+        metrics.connectionAccepted();
+        log.info("[SERVER] Client connection from host '{}' and port '{}' has added", client.getHost(),
+                client.getPort());
+    }
+
+    public void processReceivedMessage(ClientConnection client, Message message) {
+        metrics.messageReceived();
+        client.recordRead();
+        // The clients have been told about the shutdown, nothing sent after it is taken in
+        if (stopping.get()) {
+            return;
+        }
+        String rejection = rateLimiter.check(client, message);
+        if (rejection != null) {
+            // Only the first of the rate limited messages in a row is answered, so a flood does not fill the queue
+            if (!rejection.equals(RateLimiter.TOO_MANY_MESSAGES) || client.startFlooding()) {
+                rejectMessage(client, rejection);
+            }
+            return;
+        }
+        client.stopFlooding();
+        // The codecs do not produce such messages, the check keeps a new one from failing the reading thread
+        if (message.getType() == null) {
+            rejectMessage(client, "Message has no type");
+            return;
+        }
+        switch (message.getType()) {
+            case HELLO -> acceptHello(client, message.getText());
+            case USER_NAME -> acceptNewUserName(client, message.getUserName(), message.getSeq());
+            case SESSION_RESUME -> resumeSession(client, message.getUserName(), message.getText(), message.getSeq());
+            case USER_TEXT -> {
+                if (!isRegistered(client)) {
+                    rejectMessage(client, "User name is not registered");
+                } else if (message.getRoom() == null) {
+                    acceptNewMessage(message.withUserName(client.getUserName()));
+                } else {
+                    acceptRoomMessage(client, message);
                 }
-                closeConnection();
-            } catch (IOException e) {
-                log.warn("[SERVER] Error reading incoming message from client by host '" + clientSocket.getInetAddress().getHostName()
-                        + "' and port '" + clientSocket.getPort() + "': " + e.getMessage());
             }
+            case DIRECT -> acceptDirectMessage(client, message);
+            case PRESENCE_REQUEST -> sendUsersSnapshot(client);
+            case ROOM_JOIN -> joinRoom(client, message.getRoom());
+            case ROOM_LEAVE -> leaveRoom(client, message.getRoom());
+            case PING -> sendMessage(client, new Message(PONG, null, null));
+            case ACK -> acceptAck(client, message.getSeq());
         }
+    }
 
-        private void processReceivedMessage(Message message) {
-            switch (message.getType()) {
-                case USER_NAME -> acceptNewUserName(message.getUserName());
-                case USER_TEXT -> acceptNewMessage(message);
-            }
+    public void closeConnection(ClientConnection client) {
+        partingToUser(client);
+        client.close();
+    }
+
+    private void acceptHello(ClientConnection client, String requestedFeatures) {
+        Set<Feature> features = Feature.parse(requestedFeatures);
+        client.setFeatures(features);
+        WireFormat format = WireFormat.of(features);
+        client.sendAndSwitchFormat(new EncodedMessage(new Message(HELLO, null, Feature.format(features))), format);
+        // Clients that do not answer pings cannot be told from dead ones, so only the heartbeat clients are watched
+        if (features.contains(Feature.HEARTBEAT)) {
+            idleMonitor.watch(client);
         }
+    }
 
-        private void acceptNewUserName(String userName) {
-            if (usersInOrder.contains(userName)) {
-                this.sendMessage(new Message(ERROR_NAME, userName, "User with this name is " +
-                        "already registered in the chat"));
+    // The name is claimed by the client at once and registered when the owner node has granted it
+    private void acceptNewUserName(ClientConnection client, String userName, Long lastSeenSeq) {
+        if (client.getUserName() != null || userName == null) {
+            rejectUserName(client, userName);
+            return;
+        }
+        client.setUserName(userName);
+        cluster.reserve(userName).thenAccept(granted -> {
+            if (!granted) {
+                client.setUserName(null);
+                rejectUserName(client, userName);
+            } else if (client.isClosed() || !registry.reserve(userName, client)) {
+                cluster.release(userName);
+                client.setUserName(null);
+                rejectUserName(client, userName);
             } else {
-                addNewUserToList(userName);
+                replayHistory(client, lastSeenSeq);
+                addNewUserToList(client, userName);
             }
+        });
+    }
+
+    // Clients unaware of the limits would fail on the error type, so their messages are only dropped
+    private void rejectMessage(ClientConnection client, String reason) {
+        log.warn("[SERVER] Message from client by host '{}' and port '{}' is rejected: {}", client.getHost(),
+                client.getPort(), reason);
+        if (client.supports(Feature.LIMITS)) {
+            sendMessage(client, new Message(ERROR_LIMIT, client.getUserName(), reason));
         }
+    }
+
+    private void rejectUserName(ClientConnection client, String userName) {
+        sendMessage(client, new Message(ERROR_NAME, userName, "User with this name is " +
+                "already registered in the chat"));
+    }
 
-        private void addNewUserToList(String userName) {
-            clients.put(this, userName);
-            usersInOrder.add(userName);
-            log.info("[SERVER] Register new user: '" + userName + "'");
-            for (ClientConnection client : clients.keySet()) {
-                client.sendMessage(new Message(WELCOME_USER, userName, createServiceMessage("Welcome: '" +
-                        userName + "' has joined the chat!")));
-                client.sendUsers();
+    // A reconnecting client gets everything after the last message it has seen, a new one gets the last messages
+    private void replayHistory(ClientConnection client, Long lastSeenSeq) {
+        long lastSeq = history.getLastSeq();
+        long afterSeq = lastSeenSeq != null && lastSeenSeq >= 0 && lastSeenSeq <= lastSeq
+                ? lastSeenSeq : Math.max(0, lastSeq - settings.getHistoryReplayMessages());
+        replayer.replay(client, afterSeq);
+    }
+
+    private void addNewUserToList(ClientConnection newClient, String userName) {
+        presenceLock.lock();
+        try {
+            if (registry.find(userName) != newClient) {
+                return;
+            }
+            if (!clients.contains(newClient)) {
+                abandonRegistration(newClient, userName);
+                return;
             }
+            long version = registry.join(userName);
+            metrics.userRegistered();
+            log.info("[SERVER] Register new user: '{}'", userName);
+            cluster.userJoined(userName);
+            publish(new Message(WELCOME_USER, userName, ServiceMessages.welcome(userName)));
+            sendPresenceToAll(new Message(PRESENCE_ADDED, userName, userName, version), newClient);
+            if (newClient.supports(Feature.RESUME)) {
+                sendMessage(newClient, new Message(SESSION, userName, sessions.open(userName, newClient)));
+            }
+        } finally {
+            presenceLock.unlock();
         }
+    }
 
-        private void acceptNewMessage(Message message) {
-            log.info("[SERVER] Send message from '" + message.getUserName() + "': '" + message.getText() + "'");
-            for (ClientConnection client : clients.keySet()) {
-                client.sendMessage(message);
+    // The resumed client takes over the name, the rooms and the place in the roster of the dropped connection without
+    // any broadcast and gets the messages it has missed. A connection that has not been noticed as dropped yet is
+    // taken over as well
+    private void resumeSession(ClientConnection client, String userName, String token, Long lastSeenSeq) {
+        presenceLock.lock();
+        try {
+            ClientConnection previous = client.getUserName() == null && clients.contains(client)
+                    ? sessions.resume(userName, token, client) : null;
+            if (previous == null || !registry.rebind(userName, previous, client)) {
+                sendMessage(client, new Message(ERROR_SESSION, userName, "Session has expired"));
+                return;
             }
+            if (clients.remove(previous)) {
+                metrics.connectionClosed();
+                previous.abort();
+            }
+            client.setUserName(userName);
+            rooms.rebind(previous, client);
+            log.info("[SERVER] Session of user '{}' has resumed", userName);
+            replayHistory(client, lastSeenSeq);
+            sendMessage(client, createUsersSnapshot());
+            sendMessage(client, new Message(SESSION, userName, token));
+        } finally {
+            presenceLock.unlock();
         }
+    }
 
-        private void sendUsers() {
-            try {
-                String names = String.join(";", usersInOrder);
-                out.write(mapper.writeValueAsString(new Message(USER_NAME, names)) + "\n");
-                out.flush();
-            } catch (IOException e) {
-                log.warn("[SERVER] Error sending user list to client by host '" + clientSocket.getInetAddress().getHostName()
-                        + "' and port '" + clientSocket.getPort() + "': " + e.getMessage());
+    private void expireSession(String userName, ClientConnection client) {
+        presenceLock.lock();
+        try {
+            if (sessions.expire(userName, client) && registry.find(userName) == client) {
+                log.info("[SERVER] Session of user '{}' has expired", userName);
+                removeUser(client, userName);
             }
+        } finally {
+            presenceLock.unlock();
         }
+    }
 
-        private void sendMessage(Message message) {
-            try {
-                out.write(mapper.writeValueAsString(message) + "\n");
-                out.flush();
-            } catch (IOException e) {
-                log.warn("[SERVER] Error sending message to client by host '" + clientSocket.getInetAddress().getHostName()
-                        + "' and port '" + clientSocket.getPort() + "': " + e.getMessage());
+    private void abandonRegistration(ClientConnection client, String userName) {
+        if (registry.release(userName, client)) {
+            cluster.release(userName);
+        }
+    }
+
+    void acceptRemoteUser(String node, String userName) {
+        presenceLock.lock();
+        try {
+            long version = registry.joinRemote(userName, node);
+            if (version < 0 && yieldName(node, userName)) {
+                version = registry.joinRemote(userName, node);
+            }
+            if (version > 0) {
+                sendPresenceToAll(new Message(PRESENCE_ADDED, userName, userName, version), null);
             }
+        } finally {
+            presenceLock.unlock();
         }
+    }
 
-        private void closeConnection() {
-            partingToUser();
-            close();
+    // The same name granted on two nodes goes to the node with the lower id, every node decides the same way
+    private boolean yieldName(String node, String userName) {
+        String holderNode = registry.nodeOf(userName);
+        ClientConnection holder = registry.find(userName);
+        if (holderNode != null) {
+            if (node.compareTo(holderNode) >= 0) {
+                return false;
+            }
+            long version = registry.leaveRemote(userName, holderNode);
+            if (version > 0) {
+                sendPresenceToAll(new Message(PRESENCE_REMOVED, userName, userName, version), null);
+            }
+            return true;
+        }
+        if (holder == null || node.compareTo(cluster.getNodeId()) >= 0) {
+            return false;
         }
+        log.warn("[SERVER] Name '{}' has been granted on node '{}' as well, the local user gives it up", userName,
+                node);
+        if (registry.isJoined(userName)) {
+            removeUser(holder, userName);
+        } else {
+            abandonRegistration(holder, userName);
+        }
+        holder.setUserName(null);
+        rejectUserName(holder, userName);
+        return true;
+    }
 
-        private void partingToUser() {
-            String userName = clients.remove(this);
-            usersInOrder.remove(userName);
-            log.info("[SERVER] Delete user: '" + userName + "'");
-            for (ClientConnection client : clients.keySet()) {
-                client.sendMessage(new Message(PARTING_USER, userName, createServiceMessage("Goodbye: '" +
-                        userName + "' has parted from the chat!")));
-                client.sendUsers();
+    void removeRemoteUser(String node, String userName) {
+        presenceLock.lock();
+        try {
+            long version = registry.leaveRemote(userName, node);
+            if (version > 0) {
+                sendPresenceToAll(new Message(PRESENCE_REMOVED, userName, userName, version), null);
             }
+        } finally {
+            presenceLock.unlock();
         }
+    }
 
-        private String createServiceMessage(String text) {
-            return "-".repeat(50) + "\n" + text + "\n" + "-".repeat(50) + "\n";
+    void removeRemoteUsers(String node) {
+        for (String userName : registry.usersOf(node)) {
+            removeRemoteUser(node, userName);
         }
+    }
 
-        private void close() {
-            try {
-                if (!clientSocket.isClosed()) {
-                    clientSocket.close();
-                }
-                log.info("[SERVER] Client connection by host '" + clientSocket.getInetAddress().getHostName()
-                        + "' and port '" + clientSocket.getPort() + "' has successfully closed");
-            } catch (IOException e) {
-                log.error("[SERVER] Error closing client connection by host '" + clientSocket.getInetAddress().getHostName()
-                        + "' and port '" + clientSocket.getPort() + "': " + e.getMessage());
+    // Runs under the presence lock, so the users joining or leaving meanwhile are announced by their own events
+    void forEachLocalUser(Consumer<String> action) {
+        presenceLock.lock();
+        try {
+            registry.localUsers().forEach(action);
+        } finally {
+            presenceLock.unlock();
+        }
+    }
+
+    boolean isNameTaken(String userName) {
+        return registry.contains(userName);
+    }
+
+    void acceptRemoteMessage(Message message) {
+        sequenceLock.lock();
+        try {
+            if (stopping.get()) {
+                return;
             }
+            Message stamped = history.append(message);
+            deliveries.ingested(stamped.getSeq(), System.nanoTime());
+            sendToAll(stamped);
+        } finally {
+            sequenceLock.unlock();
+        }
+    }
+
+    private void acceptNewMessage(Message message) {
+        if (log.isDebugEnabled()) {
+            log.debug("[SERVER] Send message from '{}': '{}'", message.getUserName(), message.getText());
+        } else if (isSampled()) {
+            log.info("[SERVER] Send message from '{}': '{}'", message.getUserName(), message.getText());
+        }
+        publish(message);
+    }
+
+    // The recipient is found by name right away: a local one gets the message from its connection, a remote one from
+    // its node. The sender gets the message back as the confirmation, or an error if there is nobody to deliver it to
+    private void acceptDirectMessage(ClientConnection client, Message message) {
+        String userName = client.getUserName();
+        String recipient = message.getRecipient();
+        if (!isRegistered(client)) {
+            return;
+        }
+        if (recipient == null) {
+            rejectDirectMessage(client, null, "Direct message has no recipient");
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("[SERVER] Send direct message from '{}' to '{}': '{}'", userName, recipient, message.getText());
+        }
+        Message direct = message.withUserName(userName).withTimestamp(System.currentTimeMillis());
+        EncodedMessage encodedMessage = new EncodedMessage(direct);
+        ClientConnection target = registry.find(recipient);
+        String node = registry.nodeOf(recipient);
+        if (target != null && !target.isClosed() && target.supports(Feature.DIRECT)) {
+            target.send(encodedMessage);
+        } else if (target != null && !target.isClosed()) {
+            rejectDirectMessage(client, recipient, "User '" + recipient + "' cannot receive direct messages");
+            return;
+        } else if (node == null || !cluster.sendDirect(node, direct)) {
+            rejectDirectMessage(client, recipient, "User '" + recipient + "' is not online");
+            return;
+        }
+        if (target != client) {
+            client.send(encodedMessage);
+        }
+    }
+
+    // The sender has already been answered, so a message to a user that has just left is dropped
+    void acceptRemoteDirectMessage(Message message) {
+        ClientConnection target = registry.find(message.getRecipient());
+        if (target != null && target.supports(Feature.DIRECT)) {
+            sendMessage(target, message);
+        }
+    }
+
+    // Acknowledgements are optional, a client may acknowledge only some of the messages
+    private void acceptAck(ClientConnection client, Long seq) {
+        String userName = client.getUserName();
+        if (userName == null || seq == null || !client.acknowledge(seq, history.getLastSeq())) {
+            return;
+        }
+        long latency = deliveries.latencyNanos(seq, System.nanoTime());
+        if (latency >= 0) {
+            metrics.ackReceived(userName, latency);
+        }
+    }
+
+    private void rejectDirectMessage(ClientConnection client, String recipient, String reason) {
+        sendMessage(client, new Message(ERROR_DIRECT, client.getUserName(), reason).withRecipient(recipient));
+    }
+
+    private void acceptRoomMessage(ClientConnection client, Message message) {
+        if (!isRegistered(client)) {
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("[SERVER] Send message from '{}' to room '{}': '{}'", client.getUserName(), message.getRoom(),
+                    message.getText());
+        } else if (isSampled()) {
+            log.info("[SERVER] Send message from '{}' to room '{}': '{}'", client.getUserName(), message.getRoom(),
+                    message.getText());
+        }
+        long start = System.nanoTime();
+        rooms.publish(message.getRoom(), client, message.withUserName(client.getUserName())
+                .withTimestamp(System.currentTimeMillis()));
+        metrics.fanOutCompleted(System.nanoTime() - start);
+    }
+
+    // The name is claimed before the owner node grants it, so only a joined one is the client's own
+    private boolean isRegistered(ClientConnection client) {
+        String userName = client.getUserName();
+        return userName != null && registry.find(userName) == client && registry.isJoined(userName);
+    }
+
+    // Only every n-th chat message is logged at the info level, so the log does not grow with the traffic
+    private boolean isSampled() {
+        int sample = settings.getLogMessagesSample();
+        return sample == 1 || ThreadLocalRandom.current().nextInt(sample) == 0;
+    }
+
+    private void joinRoom(ClientConnection client, String room) {
+        String userName = client.getUserName();
+        if (userName == null || room == null || room.isBlank()) {
+            return;
+        }
+        rooms.join(room, client, new Message(ROOM_JOIN, userName).withRoom(room));
+        log.info("[SERVER] User '{}' has joined room '{}'", userName, room);
+    }
+
+    private void leaveRoom(ClientConnection client, String room) {
+        String userName = client.getUserName();
+        if (userName == null || room == null || !client.getRooms().contains(room)) {
+            return;
+        }
+        rooms.leave(room, client, new Message(ROOM_LEAVE, userName).withRoom(room));
+        log.info("[SERVER] User '{}' has left room '{}'", userName, room);
+    }
+
+    // Sequence numbers are assigned in the order of fan-out, so every client sees the history in the same order. Once
+    // the shutdown notice is queued nothing is published, so no client misses a message the others have got
+    private void publish(Message message) {
+        sequenceLock.lock();
+        try {
+            if (stopping.get()) {
+                return;
+            }
+            Message stamped = history.append(message);
+            deliveries.ingested(stamped.getSeq(), System.nanoTime());
+            sendToAll(stamped);
+            cluster.relay(stamped);
+        } finally {
+            sequenceLock.unlock();
+        }
+    }
+
+    // Clients supporting presence deltas get only the change, the joined client and legacy clients get the full list.
+    // A connection without a name yet may still be negotiating its wire format, it gets the list once it registers
+    private void sendPresenceToAll(Message delta, ClientConnection joinedClient) {
+        EncodedMessage deltaMessage = new EncodedMessage(delta);
+        EncodedMessage snapshotMessage = null;
+        EncodedMessage legacyMessage = null;
+        for (ClientConnection client : clients) {
+            if (client.getUserName() == null) {
+                continue;
+            }
+            if (!client.supports(Feature.PRESENCE_DELTA)) {
+                legacyMessage = legacyMessage == null
+                        ? new EncodedMessage(new Message(USER_NAME, registry.snapshot().names())) : legacyMessage;
+                client.send(legacyMessage);
+            } else if (client == joinedClient) {
+                snapshotMessage = snapshotMessage == null ? new EncodedMessage(createUsersSnapshot()) : snapshotMessage;
+                client.send(snapshotMessage);
+            } else {
+                client.send(deltaMessage);
+            }
+        }
+    }
+
+    private void sendUsersSnapshot(ClientConnection client) {
+        presenceLock.lock();
+        try {
+            sendMessage(client, createUsersSnapshot());
+        } finally {
+            presenceLock.unlock();
+        }
+    }
+
+    private Message createUsersSnapshot() {
+        Roster roster = registry.snapshot();
+        return new Message(USER_NAME, roster.names(), roster.names(), roster.version());
+    }
+
+    private void sendToAll(Message message) {
+        long start = System.nanoTime();
+        EncodedMessage encodedMessage = new EncodedMessage(message);
+        for (ClientConnection client : clients) {
+            client.send(encodedMessage);
+        }
+        metrics.fanOutCompleted(System.nanoTime() - start);
+    }
+
+    private void sendMessage(ClientConnection client, Message message) {
+        client.send(new EncodedMessage(message));
+    }
+
+    private void partingToUser(ClientConnection partedClient) {
+        presenceLock.lock();
+        try {
+            String userName = partedClient.getUserName();
+            if (!clients.remove(partedClient)) {
+                return;
+            }
+            metrics.connectionClosed();
+            // On shutdown every client is being closed, so nobody is told about the others leaving
+            if (userName == null || stopping.get()) {
+                return;
+            }
+            if (!registry.isJoined(userName) || registry.find(userName) != partedClient) {
+                abandonRegistration(partedClient, userName);
+                return;
+            }
+            if (sessions.detach(userName, partedClient, () -> expireSession(userName, partedClient))) {
+                log.info("[SERVER] User '{}' has disconnected, the name is kept for {} seconds", userName,
+                        settings.getSessionGraceSeconds());
+                return;
+            }
+            removeUser(partedClient, userName);
+        } finally {
+            presenceLock.unlock();
+        }
+    }
+
+    private void removeUser(ClientConnection client, String userName) {
+        for (String room : client.getRooms()) {
+            leaveRoom(client, room);
         }
+        long version = registry.leave(userName);
+        rateLimiter.release(userName);
+        sessions.close(userName);
+        metrics.userLeft(userName);
+        log.info("[SERVER] Delete user: '{}'", userName);
+        cluster.userLeft(userName);
+        publish(new Message(PARTING_USER, userName, ServiceMessages.goodbye(userName)));
+        sendPresenceToAll(new Message(PRESENCE_REMOVED, userName, userName, version), null);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,165 @@
+package com.suslov.cft.chat.server;
+
+import com.suslov.cft.chat.common.Feature;
+import com.suslov.cft.chat.common.codec.WireFormat;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+@Slf4j
+public abstract class ClientConnection {
+    @Getter
+    private final String host;
+    @Getter
+    private final int port;
+    protected final OutboundQueue outbound;
+    @Getter
+    @Setter
+    private volatile Set<Feature> features = EnumSet.noneOf(Feature.class);
+    @Getter
+    @Setter
+    private volatile String userName;
+    @Getter
+    private volatile WireFormat inboundFormat = WireFormat.LEGACY_JSON;
+    private volatile boolean live;
+    // Only the messages sent live are acknowledged into the latency, the replayed ones were ingested long ago
+    private volatile long firstLiveSeq = Long.MAX_VALUE;
+    private volatile long lastAckedSeq;
+    @Getter
+    private final Set<String> rooms = ConcurrentHashMap.newKeySet();
+    private final LongAdder framesWritten = new LongAdder();
+    private final LongAdder writeCalls = new LongAdder();
+    @Getter
+    @Setter
+    private volatile TokenBucket rateLimit;
+    private volatile boolean flooding;
+    @Getter
+    private volatile long lastReadNanos = System.nanoTime();
+    @Getter
+    private volatile long lastWriteNanos = lastReadNanos;
+
+    protected ClientConnection(String host, int port, OutboundQueue outbound) {
+        this.host = host;
+        this.port = port;
+        this.outbound = outbound;
+    }
+
+    // Sequenced messages are delivered only after the history replay has caught up with them
+    public void send(EncodedMessage message) {
+        if (message.isSequenced() && !live) {
+            return;
+        }
+        afterOffer(outbound.offer(message));
+    }
+
+    public void sendHistory(EncodedMessage message) {
+        afterOffer(outbound.offer(message));
+    }
+
+    // Every sequenced message from the given one on is sent to the connection as it is published
+    public void goLive(long firstSeq) {
+        firstLiveSeq = firstSeq;
+        live = true;
+    }
+
+    // Returns false for a message that has not been sent live, has not been published yet or has been acknowledged
+    // already, the client acknowledges in the order of the sequence numbers
+    boolean acknowledge(long seq, long lastSeq) {
+        if (seq < firstLiveSeq || seq > lastSeq || seq <= lastAckedSeq) {
+            return false;
+        }
+        lastAckedSeq = seq;
+        return true;
+    }
+
+    public void sendAndSwitchFormat(EncodedMessage message, WireFormat format) {
+        inboundFormat = format;
+        afterOffer(outbound.offerAndSwitchFormat(message, format));
+    }
+
+    private void afterOffer(boolean queued) {
+        if (queued) {
+            signalWriter();
+        } else {
+            log.warn("[SERVER] Outbound queue overflow for client by host '{}' and port '{}', slow consumer is "
+                    + "disconnected", host, port);
+            abort();
+        }
+    }
+
+    // Everything queued so far is still written out, then the connection shuts down its output and waits for the
+    // client to close its side
+    public void finish() {
+        outbound.finish();
+        signalWriter();
+    }
+
+    public boolean supports(Feature feature) {
+        return features.contains(feature);
+    }
+
+    public boolean isClosed() {
+        return outbound.isClosed();
+    }
+
+    public int getQueueDepth() {
+        return outbound.size();
+    }
+
+    public long getDroppedFrames() {
+        return outbound.getDropped();
+    }
+
+    public long getCoalescedFrames() {
+        return outbound.getCoalesced();
+    }
+
+    public long getFramesWritten() {
+        return framesWritten.sum();
+    }
+
+    public long getWriteCalls() {
+        return writeCalls.sum();
+    }
+
+    // Returns false if the client has been flooding already
+    boolean startFlooding() {
+        if (flooding) {
+            return false;
+        }
+        flooding = true;
+        return true;
+    }
+
+    void stopFlooding() {
+        if (flooding) {
+            flooding = false;
+        }
+    }
+
+    public void recordRead() {
+        lastReadNanos = System.nanoTime();
+    }
+
+    protected void recordWrite(int frames) {
+        framesWritten.add(frames);
+        writeCalls.increment();
+        lastWriteNanos = System.nanoTime();
+    }
+
+    public abstract void close();
+
+    protected abstract void signalWriter();
+
+    protected abstract void abort();
+
+    protected String describeOutbound() {
+        return "wrote " + getFramesWritten() + " frames in " + getWriteCalls() + " writes, dropped "
+                + getDroppedFrames() + " and coalesced " + getCoalescedFrames() + " outbound frames";
+    }
+}
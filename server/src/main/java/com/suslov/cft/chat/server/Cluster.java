@@ -0,0 +1,147 @@
+package com.suslov.cft.chat.server;
+
+import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.server.cluster.ClusterBus;
+import com.suslov.cft.chat.server.cluster.ClusterEvent;
+import com.suslov.cft.chat.server.cluster.ClusterListener;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.suslov.cft.chat.common.Message.Type.USER_NAME;
+import static com.suslov.cft.chat.server.cluster.ClusterEvent.Kind.*;
+
+// Relays the chat events between the nodes and keeps the user names unique across them: every name is owned by one
+// of the reachable nodes chosen by the name hash, and only the owner grants it. While the nodes are changing two of
+// them may still grant the same name, then the user of the node with the lower id keeps it
+@Slf4j
+class Cluster implements ClusterListener {
+    private static final long RESERVE_TIMEOUT_MILLIS = 3_000;
+
+    private final ChatServer server;
+    private final ClusterBus bus;
+    @Getter
+    private final String nodeId;
+    private final Map<String, String> reservedNames;
+    private final Map<Long, CompletableFuture<Boolean>> pendingReservations;
+    private final AtomicLong requestIds;
+
+    Cluster(ChatServer server, ClusterBus bus) {
+        this.server = server;
+        this.bus = bus;
+        this.nodeId = bus.getNodeId();
+        this.reservedNames = new ConcurrentHashMap<>();
+        this.pendingReservations = new ConcurrentHashMap<>();
+        this.requestIds = new AtomicLong();
+    }
+
+    void start() throws IOException {
+        bus.start(this);
+    }
+
+    CompletableFuture<Boolean> reserve(String userName) {
+        String owner = ownerOf(userName);
+        if (owner.equals(nodeId)) {
+            return CompletableFuture.completedFuture(grant(userName, nodeId));
+        }
+        long requestId = requestIds.incrementAndGet();
+        CompletableFuture<Boolean> reservation = new CompletableFuture<>();
+        pendingReservations.put(requestId, reservation);
+        if (!bus.send(owner, new ClusterEvent(RESERVE, nodeId, requestId, new Message(USER_NAME, userName)))) {
+            pendingReservations.remove(requestId);
+            return CompletableFuture.completedFuture(false);
+        }
+        // The owner may still grant the name after the timeout, so it is released right away
+        return reservation.orTimeout(RESERVE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).exceptionally(e -> {
+            pendingReservations.remove(requestId);
+            log.warn("[SERVER] Name reservation of '" + userName + "' at node '" + owner + "' has timed out");
+            release(userName);
+            return false;
+        });
+    }
+
+    // Every node forgets the reservation, so it is released even if the owner has changed in the meantime
+    void release(String userName) {
+        reservedNames.remove(userName, nodeId);
+        bus.publish(ClusterEvent.of(RELEASE, nodeId, new Message(USER_NAME, userName)));
+    }
+
+    void userJoined(String userName) {
+        bus.publish(ClusterEvent.of(USER_JOINED, nodeId, new Message(USER_NAME, userName)));
+    }
+
+    void userLeft(String userName) {
+        reservedNames.remove(userName, nodeId);
+        bus.publish(ClusterEvent.of(USER_LEFT, nodeId, new Message(USER_NAME, userName)));
+    }
+
+    void relay(Message message) {
+        bus.publish(ClusterEvent.of(MESSAGE, nodeId, message));
+    }
+
+    // Returns false if the node of the recipient is not reachable
+    boolean sendDirect(String node, Message message) {
+        return bus.send(node, ClusterEvent.of(DIRECT, nodeId, message));
+    }
+
+    void close() {
+        bus.close();
+    }
+
+    @Override
+    public void onEvent(ClusterEvent event) {
+        switch (event.kind()) {
+            case MESSAGE -> server.acceptRemoteMessage(event.message());
+            case USER_JOINED -> server.acceptRemoteUser(event.origin(), event.userName());
+            case USER_LEFT -> {
+                reservedNames.remove(event.userName(), event.origin());
+                server.removeRemoteUser(event.origin(), event.userName());
+            }
+            // A node that does not own the name in its own view of the members denies it
+            case RESERVE -> {
+                boolean granted = ownerOf(event.userName()).equals(nodeId) && grant(event.userName(), event.origin());
+                bus.send(event.origin(), new ClusterEvent(granted ? RESERVE_GRANTED : RESERVE_DENIED, nodeId,
+                        event.requestId(), event.message()));
+            }
+            case RESERVE_GRANTED, RESERVE_DENIED -> {
+                CompletableFuture<Boolean> reservation = pendingReservations.remove(event.requestId());
+                if (reservation != null) {
+                    reservation.complete(event.kind() == RESERVE_GRANTED);
+                }
+            }
+            case RELEASE -> reservedNames.remove(event.userName(), event.origin());
+            case DIRECT -> server.acceptRemoteDirectMessage(event.message());
+        }
+    }
+
+    @Override
+    public void onNodeUp(String node) {
+        log.info("[SERVER] Cluster node '" + node + "' has joined");
+        server.forEachLocalUser(userName ->
+                bus.send(node, ClusterEvent.of(USER_JOINED, nodeId, new Message(USER_NAME, userName))));
+    }
+
+    @Override
+    public void onNodeDown(String node) {
+        log.info("[SERVER] Cluster node '" + node + "' has left");
+        reservedNames.values().removeIf(node::equals);
+        server.removeRemoteUsers(node);
+    }
+
+    // The registry also holds the users granted by a previous owner, which matters right after the nodes change
+    private boolean grant(String userName, String node) {
+        return !server.isNameTaken(userName) && reservedNames.putIfAbsent(userName, node) == null;
+    }
+
+    private String ownerOf(String userName) {
+        List<String> members = bus.members();
+        return members.get(Math.floorMod(userName.hashCode(), members.size()));
+    }
+}
@@ -0,0 +1,33 @@
+package com.suslov.cft.chat.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Remembers when the last chat messages were ingested, so an acknowledgement turns into the delivery latency of the
+// message without keeping anything per recipient. Written under the sequence lock only; a reader sees a slot as valid
+// only if it holds the same sequence number before and after the time is read
+class DeliveryTracker {
+    private static final int CAPACITY = 1 << 16;
+
+    private final AtomicLongArray slots = new AtomicLongArray(2 * CAPACITY);
+
+    void ingested(long seq, long nanos) {
+        int slot = slotOf(seq);
+        slots.set(slot, 0);
+        slots.set(slot + 1, nanos);
+        slots.set(slot, seq);
+    }
+
+    // Returns -1 if the message is too old to be remembered
+    long latencyNanos(long seq, long nowNanos) {
+        int slot = slotOf(seq);
+        if (seq <= 0 || slots.get(slot) != seq) {
+            return -1;
+        }
+        long ingestNanos = slots.get(slot + 1);
+        return slots.get(slot) == seq ? Math.max(0, nowNanos - ingestNanos) : -1;
+    }
+
+    private static int slotOf(long seq) {
+        return 2 * (int) (seq & (CAPACITY - 1));
+    }
+}
@@ -0,0 +1,35 @@
+package com.suslov.cft.chat.server;
+
+import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.common.codec.WireFormat;
+import lombok.Getter;
+
+// Message prepared for fan-out: it is encoded at most once per wire format whatever the number of recipients
+public final class EncodedMessage {
+    @Getter
+    private final Message message;
+    private final boolean presence;
+    private final boolean snapshot;
+    private final Frame[] frames;
+
+    public EncodedMessage(Message message) {
+        this.message = message;
+        this.snapshot = message.getType() == Message.Type.USER_NAME;
+        this.presence = snapshot || message.getType() == Message.Type.PRESENCE_ADDED
+                || message.getType() == Message.Type.PRESENCE_REMOVED;
+        this.frames = new Frame[WireFormat.values().length];
+    }
+
+    public boolean isSequenced() {
+        return message.getSeq() != null;
+    }
+
+    public Frame frame(WireFormat format) {
+        Frame frame = frames[format.ordinal()];
+        if (frame == null) {
+            frame = new Frame(format.getCodec().encode(message), presence, snapshot);
+            frames[format.ordinal()] = frame;
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,34 @@
+package com.suslov.cft.chat.server;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+public final class Frame {
+    private final byte[] bytes;
+    @Getter
+    private final boolean presence;
+    // A full roster rather than a delta
+    @Getter
+    private final boolean snapshot;
+
+    public Frame(byte[] bytes, boolean presence, boolean snapshot) {
+        this.bytes = bytes;
+        this.presence = presence;
+        this.snapshot = snapshot;
+    }
+
+    public int length() {
+        return bytes.length;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes);
+    }
+
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+}
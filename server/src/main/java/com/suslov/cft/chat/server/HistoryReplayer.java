@@ -0,0 +1,83 @@
+package com.suslov.cft.chat.server;
+
+import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.server.history.HistoryLog;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Streams the history to joined clients one batch at a time on its own threads, so a long replay neither blocks the
+// broadcasts nor floods the outbound queue of the client. Every batch is a separate task, so the batches of the
+// clients replaying at the same time take turns
+class HistoryReplayer {
+    private static final long BACKOFF_MILLIS = 10;
+
+    private final HistoryLog history;
+    private final ReentrantLock sequenceLock;
+    private final int batchSize;
+    private final int queueLimit;
+    private final ScheduledExecutorService executor;
+
+    HistoryReplayer(HistoryLog history, ReentrantLock sequenceLock, int batchSize, int threads, int queueLimit) {
+        this.history = history;
+        this.sequenceLock = sequenceLock;
+        this.batchSize = batchSize;
+        this.queueLimit = queueLimit;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newScheduledThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "history-replay-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void replay(ClientConnection client, long afterSeq) {
+        executor.execute(() -> replayBatch(client, afterSeq));
+    }
+
+    private void replayBatch(ClientConnection client, long afterSeq) {
+        if (client.isClosed()) {
+            return;
+        }
+        if (client.getQueueDepth() > queueLimit) {
+            executor.schedule(() -> replayBatch(client, afterSeq), BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        long lastSeq = history.getLastSeq();
+        long nextSeq = send(client, history.read(afterSeq, (int) Math.min(batchSize, lastSeq - afterSeq)), afterSeq);
+        if (nextSeq == afterSeq && nextSeq < lastSeq) {
+            // Nothing could be read, e.g. the history is closing, so the next try waits
+            executor.schedule(() -> replayBatch(client, nextSeq), BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+        } else if (nextSeq < lastSeq || !goLive(client, nextSeq)) {
+            executor.execute(() -> replayBatch(client, nextSeq));
+        }
+    }
+
+    // The broadcasts are stopped only while the messages published since the last batch are taken from memory, so no
+    // message falls between history and live. Returns false if they are not all held in memory anymore
+    private boolean goLive(ClientConnection client, long afterSeq) {
+        sequenceLock.lock();
+        try {
+            List<Message> missed = history.readRecent(afterSeq);
+            if (missed == null) {
+                return false;
+            }
+            send(client, missed, afterSeq);
+            client.goLive(history.getLastSeq() + 1);
+            return true;
+        } finally {
+            sequenceLock.unlock();
+        }
+    }
+
+    private long send(ClientConnection client, List<Message> messages, long afterSeq) {
+        for (Message message : messages) {
+            client.sendHistory(new EncodedMessage(message));
+        }
+        return messages.isEmpty() ? afterSeq : messages.get(messages.size() - 1).getSeq();
+    }
+}
@@ -0,0 +1,126 @@
+package com.suslov.cft.chat.server;
+
+import com.suslov.cft.chat.common.Message;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.suslov.cft.chat.common.Message.Type.PING;
+
+// Checks the connections of the heartbeat clients on a hashed timer wheel driven by one thread: every connection
+// sits in the slot of its next deadline, so a tick looks only at the connections that may have become idle.
+// A client not written to for the write timeout, or not heard from for half of the read timeout, is pinged,
+// and a client not heard from for the whole read timeout is closed as a dead peer
+@Slf4j
+class IdleMonitor implements Runnable {
+    private static final int WHEEL_SIZE = 512;
+    private static final EncodedMessage PING_MESSAGE = new EncodedMessage(new Message(PING, null, null));
+
+    private final long tickNanos;
+    private final long readIdleNanos;
+    private final long writeIdleNanos;
+    private final List<ArrayDeque<Timeout>> wheel;
+    private final Queue<ClientConnection> added;
+    private long tick;
+
+    IdleMonitor(long tickMillis, long readIdleMillis, long writeIdleMillis) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.readIdleNanos = TimeUnit.MILLISECONDS.toNanos(readIdleMillis);
+        this.writeIdleNanos = TimeUnit.MILLISECONDS.toNanos(writeIdleMillis);
+        this.wheel = new ArrayList<>(WHEEL_SIZE);
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(new ArrayDeque<>());
+        }
+        this.added = new ConcurrentLinkedQueue<>();
+    }
+
+    void start() {
+        Thread thread = new Thread(this, "idle-monitor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void watch(ClientConnection client) {
+        added.add(client);
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        while (true) {
+            long delay;
+            while ((delay = start + (tick + 1) * tickNanos - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            tick++;
+            ClientConnection client;
+            while ((client = added.poll()) != null) {
+                schedule(new Timeout(client), Math.min(writeIdleNanos, readIdleNanos / 2));
+            }
+            expire(wheel.get((int) (tick % WHEEL_SIZE)));
+        }
+    }
+
+    private void expire(ArrayDeque<Timeout> slot) {
+        for (int i = slot.size(); i > 0; i--) {
+            Timeout timeout = slot.poll();
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                slot.add(timeout);
+            } else {
+                check(timeout);
+            }
+        }
+    }
+
+    private void check(Timeout timeout) {
+        ClientConnection client = timeout.client;
+        if (client.isClosed()) {
+            return;
+        }
+        long now = System.nanoTime();
+        long lastRead = client.getLastReadNanos();
+        if (now - lastRead >= readIdleNanos) {
+            log.info("[SERVER] Client by host '{}' and port '{}' has not answered for {} ms, connection is closed",
+                    client.getHost(), client.getPort(), TimeUnit.NANOSECONDS.toMillis(now - lastRead));
+            client.abort();
+            return;
+        }
+        boolean probed = timeout.pingNanos - lastRead > 0;
+        if (now - client.getLastWriteNanos() >= writeIdleNanos || (!probed && now - lastRead >= readIdleNanos / 2)) {
+            client.send(PING_MESSAGE);
+            timeout.pingNanos = now;
+            probed = true;
+        }
+        long deadline = Math.min(lastRead + readIdleNanos, Math.max(client.getLastWriteNanos(), timeout.pingNanos)
+                + writeIdleNanos);
+        if (!probed) {
+            deadline = Math.min(deadline, lastRead + readIdleNanos / 2);
+        }
+        schedule(timeout, deadline - now);
+    }
+
+    // Runs on the wheel thread only
+    private void schedule(Timeout timeout, long delayNanos) {
+        long ticks = Math.max(1, (delayNanos + tickNanos - 1) / tickNanos);
+        timeout.rounds = (ticks - 1) / WHEEL_SIZE;
+        wheel.get((int) ((tick + ticks) % WHEEL_SIZE)).add(timeout);
+    }
+
+    private static class Timeout {
+        private final ClientConnection client;
+        private long rounds;
+        private long pingNanos;
+
+        private Timeout(ClientConnection client) {
+            this.client = client;
+            this.pingNanos = client.getLastReadNanos();
+        }
+    }
+}
@@ -4,6 +4,8 @@ public class MainServer {
 
     public static void main(String[] args) {
         ChatServer server = new ChatServer();
+        // A SIGTERM or Ctrl+C drains the connections before the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown, "shutdown"));
         server.launch();
     }
 }
\ No newline at end of file
@@ -0,0 +1,204 @@
+package com.suslov.cft.chat.server;
+
+import com.suslov.cft.chat.common.codec.WireFormat;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class OutboundQueue {
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ArrayDeque<Frame> frames;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final LongAdder dropped;
+    private final LongAdder coalesced;
+    private WireFormat format;
+    private boolean closed;
+    private boolean finishing;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.frames = new ArrayDeque<>(Math.min(capacity, 64));
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.dropped = new LongAdder();
+        this.coalesced = new LongAdder();
+        this.format = WireFormat.LEGACY_JSON;
+    }
+
+    // Returns false when the queue is full and the policy requires the slow consumer to be disconnected
+    public boolean offer(EncodedMessage message) {
+        lock.lock();
+        try {
+            return enqueue(message);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The message is still queued in the current format, everything offered after it uses the new one
+    public boolean offerAndSwitchFormat(EncodedMessage message, WireFormat newFormat) {
+        lock.lock();
+        try {
+            boolean queued = enqueue(message);
+            format = newFormat;
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Waits for the first frame, then up to the flush window for the batch to fill; returns 0 once closed or once
+    // finished and empty
+    public int takeBatch(List<Frame> batch, int maxFrames, long windowNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            while (frames.isEmpty() && !closed && !finishing) {
+                notEmpty.await();
+            }
+            long remaining = windowNanos;
+            while (remaining > 0 && frames.size() < maxFrames && !closed && !finishing) {
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+            return drain(batch, maxFrames);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int drainTo(List<Frame> batch, int maxFrames) {
+        lock.lock();
+        try {
+            return drain(batch, maxFrames);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            frames.clear();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Unlike close, the queued frames are kept for the writer to send, it just stops waiting for more
+    public void finish() {
+        lock.lock();
+        try {
+            finishing = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isFinishing() {
+        lock.lock();
+        try {
+            return finishing;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return frames.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    private int drain(List<Frame> batch, int maxFrames) {
+        int count = 0;
+        while (count < maxFrames && !frames.isEmpty()) {
+            batch.add(frames.pollFirst());
+            count++;
+        }
+        return count;
+    }
+
+    private boolean enqueue(EncodedMessage message) {
+        if (closed) {
+            return true;
+        }
+        Frame frame = message.frame(format);
+        if (frames.size() >= capacity && !makeRoom(frame)) {
+            return false;
+        }
+        frames.addLast(frame);
+        notEmpty.signal();
+        return true;
+    }
+
+    private boolean makeRoom(Frame incoming) {
+        switch (policy) {
+            case DISCONNECT -> {
+                return false;
+            }
+            case COALESCE_PRESENCE -> coalescePresence(incoming);
+        }
+        if (frames.size() >= capacity) {
+            frames.pollFirst();
+            dropped.increment();
+        }
+        return true;
+    }
+
+    // A queued roster is superseded by any later one, and a delta by any later roster update: a client that finds
+    // the delta versions skipping asks for the roster again. So only the newest roster and the newest delta after it
+    // need to reach the client
+    private void coalescePresence(Frame incoming) {
+        boolean keepSnapshot = !incoming.isSnapshot();
+        boolean keepDelta = !incoming.isPresence();
+        Iterator<Frame> iterator = frames.descendingIterator();
+        while (iterator.hasNext()) {
+            Frame frame = iterator.next();
+            if (!frame.isPresence()) {
+                continue;
+            }
+            boolean keep = frame.isSnapshot() ? keepSnapshot : keepDelta;
+            keepDelta = false;
+            if (frame.isSnapshot()) {
+                keepSnapshot = false;
+            }
+            if (!keep) {
+                iterator.remove();
+                coalesced.increment();
+            }
+        }
+    }
+
+    public enum OverflowPolicy {
+        DROP_OLDEST, COALESCE_PRESENCE, DISCONNECT
+    }
+}
@@ -0,0 +1,63 @@
+package com.suslov.cft.chat.server;
+
+import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.server.service.ServerSettings;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.suslov.cft.chat.common.Message.Type.DIRECT;
+import static com.suslov.cft.chat.common.Message.Type.USER_TEXT;
+
+// Every incoming message takes a token from the bucket of its connection, a chat message also from the bucket of
+// its user, which outlives the connection, so reconnecting does not refill it. Only the text of a chat message may be
+// long, every other field of any message is limited to a name-sized length
+class RateLimiter {
+    static final String TOO_MANY_MESSAGES = "Too many messages, please slow down";
+
+    private final ServerSettings settings;
+    private final Map<String, TokenBucket> users;
+
+    RateLimiter(ServerSettings settings) {
+        this.settings = settings;
+        this.users = new ConcurrentHashMap<>();
+    }
+
+    TokenBucket createConnectionBucket() {
+        return new TokenBucket(settings.getRateConnectionPerSecond(), settings.getRateConnectionBurst());
+    }
+
+    // Returns the reason the message is rejected for or null if it is accepted
+    String check(ClientConnection client, Message message) {
+        if (!client.getRateLimit().tryAcquire()) {
+            return TOO_MANY_MESSAGES;
+        }
+        boolean chat = message.getType() == USER_TEXT || message.getType() == DIRECT;
+        int fieldLength = settings.getMessageMaxFieldLength();
+        if (isLonger(message.getUserName(), fieldLength) || isLonger(message.getRoom(), fieldLength)
+                || isLonger(message.getRecipient(), fieldLength) || !chat && isLonger(message.getText(), fieldLength)) {
+            return "Message field is longer than " + fieldLength + " characters";
+        }
+        if (!chat) {
+            return null;
+        }
+        if (isLonger(message.getText(), settings.getMessageMaxLength())) {
+            return "Message is longer than " + settings.getMessageMaxLength() + " characters";
+        }
+        String userName = client.getUserName();
+        if (userName != null && !users.computeIfAbsent(userName, name -> new TokenBucket(
+                settings.getRateUserPerSecond(), settings.getRateUserBurst())).tryAcquire()) {
+            return TOO_MANY_MESSAGES;
+        }
+        return null;
+    }
+
+    private static boolean isLonger(String field, int maxLength) {
+        return field != null && field.length() > maxLength;
+    }
+
+    // The bucket of a user that has left is kept only while it still holds back the next messages
+    void release(String userName) {
+        users.computeIfPresent(userName, (name, bucket) -> bucket.isFull() ? null : bucket);
+    }
+}
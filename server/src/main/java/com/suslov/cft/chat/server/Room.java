@@ -0,0 +1,78 @@
+package com.suslov.cft.chat.server;
+
+import lombok.Getter;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Each room has its own lock, so the fan-out in a busy room never waits for another room
+class Room {
+    @Getter
+    private final String name;
+    private final Set<ClientConnection> members;
+    private final ReentrantLock lock;
+    private boolean closed;
+
+    Room(String name) {
+        this.name = name;
+        this.members = new HashSet<>();
+        this.lock = new ReentrantLock();
+    }
+
+    // Returns false if the room has been removed after its last member left, a new one has to be created then
+    boolean join(ClientConnection client, EncodedMessage notice) {
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (members.add(client)) {
+                sendToMembers(notice);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns true if the room has become empty and is closed
+    boolean leave(ClientConnection client, EncodedMessage notice) {
+        lock.lock();
+        try {
+            if (members.contains(client)) {
+                sendToMembers(notice);
+                members.remove(client);
+            }
+            closed = members.isEmpty();
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns false if the old connection is not a member
+    boolean replace(ClientConnection previous, ClientConnection client) {
+        lock.lock();
+        try {
+            return members.remove(previous) && members.add(client);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void publish(EncodedMessage message) {
+        lock.lock();
+        try {
+            sendToMembers(message);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sendToMembers(EncodedMessage message) {
+        for (ClientConnection member : members) {
+            member.send(message);
+        }
+    }
+}
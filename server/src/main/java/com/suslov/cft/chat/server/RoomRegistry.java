@@ -0,0 +1,57 @@
+package com.suslov.cft.chat.server;
+
+import com.suslov.cft.chat.common.Message;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class RoomRegistry {
+    private final Map<String, Room> byName;
+
+    public RoomRegistry() {
+        this.byName = new ConcurrentHashMap<>();
+    }
+
+    // The notice goes to every member including the joined client, which confirms the join to it
+    public void join(String roomName, ClientConnection client, Message notice) {
+        EncodedMessage encodedNotice = new EncodedMessage(notice);
+        Room room = byName.computeIfAbsent(roomName, Room::new);
+        while (!room.join(client, encodedNotice)) {
+            byName.remove(roomName, room);
+            room = byName.computeIfAbsent(roomName, Room::new);
+        }
+        client.getRooms().add(roomName);
+    }
+
+    public void leave(String roomName, ClientConnection client, Message notice) {
+        Room room = byName.get(roomName);
+        client.getRooms().remove(roomName);
+        if (room != null && room.leave(client, new EncodedMessage(notice))) {
+            byName.remove(roomName, room);
+        }
+    }
+
+    // Moves the memberships of a resumed user to the new connection without any notice to the rooms
+    public void rebind(ClientConnection previous, ClientConnection client) {
+        for (String roomName : previous.getRooms()) {
+            Room room = byName.get(roomName);
+            if (room != null && room.replace(previous, client)) {
+                client.getRooms().add(roomName);
+            }
+        }
+    }
+
+    // Returns false if the sender is not a member of the room
+    public boolean publish(String roomName, ClientConnection sender, Message message) {
+        Room room = byName.get(roomName);
+        if (room == null || !sender.getRooms().contains(roomName)) {
+            return false;
+        }
+        room.publish(new EncodedMessage(message));
+        return true;
+    }
+
+    public int size() {
+        return byName.size();
+    }
+}
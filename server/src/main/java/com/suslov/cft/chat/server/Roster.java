@@ -0,0 +1,10 @@
+package com.suslov.cft.chat.server;
+
+import java.util.List;
+
+public record Roster(long version, List<String> users, String names) {
+
+    public static Roster of(long version, List<String> users) {
+        return new Roster(version, List.copyOf(users), String.join(";", users));
+    }
+}
@@ -0,0 +1,11 @@
+package com.suslov.cft.chat.server;
+
+import java.io.IOException;
+
+public interface ServerEngine {
+
+    void start(int port) throws IOException;
+
+    // Stops accepting new connections, start returns then; the accepted ones are served until they are closed
+    void stop();
+}
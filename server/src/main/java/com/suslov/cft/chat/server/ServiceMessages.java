@@ -0,0 +1,25 @@
+package com.suslov.cft.chat.server;
+
+// The texts the server itself sends to the chat, framed by lines so they stand out among the users' messages
+public final class ServiceMessages {
+    private static final String LINE = "-".repeat(50);
+
+    private ServiceMessages() {
+    }
+
+    public static String welcome(String userName) {
+        return create("Welcome: '" + userName + "' has joined the chat!");
+    }
+
+    public static String goodbye(String userName) {
+        return create("Goodbye: '" + userName + "' has parted from the chat!");
+    }
+
+    public static String shutdown() {
+        return create("Server is shutting down");
+    }
+
+    private static String create(String text) {
+        return LINE + "\n" + text + "\n" + LINE + "\n";
+    }
+}
@@ -0,0 +1,92 @@
+package com.suslov.cft.chat.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Sessions of the users whose clients can resume them: when the connection drops, the name stays registered for
+// the grace period and the client reconnecting with the session token takes it back. Called under the presence lock
+class SessionRegistry {
+    private static final int TOKEN_BYTES = 16;
+
+    private final long graceMillis;
+    private final SecureRandom random;
+    private final Map<String, Session> byUser;
+    private final ScheduledExecutorService executor;
+
+    SessionRegistry(long graceMillis) {
+        this.graceMillis = graceMillis;
+        this.random = new SecureRandom();
+        this.byUser = new ConcurrentHashMap<>();
+        this.executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "session-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    String open(String userName, ClientConnection client) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = HexFormat.of().formatHex(bytes);
+        byUser.put(userName, new Session(token, client));
+        return token;
+    }
+
+    // Returns the connection the session has been bound to, or null if there is no such session
+    ClientConnection resume(String userName, String token, ClientConnection client) {
+        Session session = userName == null ? null : byUser.get(userName);
+        if (session == null || token == null || !MessageDigest.isEqual(session.token.getBytes(StandardCharsets.UTF_8),
+                token.getBytes(StandardCharsets.UTF_8))) {
+            return null;
+        }
+        if (session.expiry != null) {
+            session.expiry.cancel(false);
+            session.expiry = null;
+        }
+        ClientConnection previous = session.client;
+        session.client = client;
+        return previous;
+    }
+
+    // Returns false if the client has no session to keep, then the user leaves at once
+    boolean detach(String userName, ClientConnection client, Runnable onExpiry) {
+        Session session = byUser.get(userName);
+        if (session == null || session.client != client) {
+            return false;
+        }
+        session.expiry = executor.schedule(onExpiry, graceMillis, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    // Returns true if the session of the client has not been resumed, it is removed then
+    boolean expire(String userName, ClientConnection client) {
+        Session session = byUser.get(userName);
+        return session != null && session.client == client && byUser.remove(userName, session);
+    }
+
+    void close(String userName) {
+        Session session = byUser.remove(userName);
+        if (session != null && session.expiry != null) {
+            session.expiry.cancel(false);
+        }
+    }
+
+    private static class Session {
+        private final String token;
+        private ClientConnection client;
+        private ScheduledFuture<?> expiry;
+
+        private Session(String token, ClientConnection client) {
+            this.token = token;
+            this.client = client;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.suslov.cft.chat.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token bucket kept as the moment it will be full again (GCRA), so taking a token is a single CAS on one long
+// and nothing has to refill the bucket in the background
+class TokenBucket {
+    private final long intervalNanos;
+    private final long capacityNanos;
+    private final AtomicLong fullAt;
+
+    TokenBucket(int perSecond, int burst) {
+        this.intervalNanos = Math.max(1, TimeUnit.SECONDS.toNanos(1) / perSecond);
+        this.capacityNanos = intervalNanos * burst;
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    boolean tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + intervalNanos;
+            if (next - now > capacityNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    boolean isFull() {
+        return fullAt.get() - System.nanoTime() <= 0;
+    }
+}
@@ -0,0 +1,157 @@
+package com.suslov.cft.chat.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class UserRegistry {
+    private final Map<String, Registration> byName;
+    private final ConcurrentSkipListMap<Long, String> joinOrder;
+    private final AtomicLong joinSequence;
+    private final AtomicLong version;
+    private volatile Roster roster;
+
+    public UserRegistry() {
+        this.byName = new ConcurrentHashMap<>();
+        this.joinOrder = new ConcurrentSkipListMap<>();
+        this.joinSequence = new AtomicLong();
+        this.version = new AtomicLong();
+        this.roster = Roster.of(0, new ArrayList<>());
+    }
+
+    public boolean reserve(String userName, ClientConnection client) {
+        Registration registration = new Registration(client, null, joinSequence.incrementAndGet());
+        if (byName.putIfAbsent(userName, registration) != null) {
+            return false;
+        }
+        client.setUserName(userName);
+        return true;
+    }
+
+    public long join(String userName) {
+        Registration registration = byName.get(userName);
+        if (registration != null) {
+            joinOrder.put(registration.joinSequence(), userName);
+        }
+        return changeVersion();
+    }
+
+    // Drops a reservation that has never joined, e.g. when the client disconnects during the registration
+    public boolean release(String userName, ClientConnection client) {
+        Registration registration = byName.get(userName);
+        return registration != null && registration.client() == client && !isJoined(registration)
+                && byName.remove(userName, registration);
+    }
+
+    // Returns the new roster version, or -1 if the name is already taken
+    public long joinRemote(String userName, String node) {
+        Registration registration = new Registration(null, node, joinSequence.incrementAndGet());
+        if (byName.putIfAbsent(userName, registration) != null) {
+            return -1;
+        }
+        joinOrder.put(registration.joinSequence(), userName);
+        return changeVersion();
+    }
+
+    // Returns the new roster version, or -1 if the user is not registered on the node
+    public long leaveRemote(String userName, String node) {
+        Registration registration = byName.get(userName);
+        if (registration == null || !node.equals(registration.node()) || !byName.remove(userName, registration)) {
+            return -1;
+        }
+        joinOrder.remove(registration.joinSequence());
+        return changeVersion();
+    }
+
+    public long leave(String userName) {
+        Registration registration = byName.remove(userName);
+        if (registration != null) {
+            joinOrder.remove(registration.joinSequence());
+        }
+        return changeVersion();
+    }
+
+    // Keeps the place in the join order, so the roster stays the same for everyone
+    public boolean rebind(String userName, ClientConnection previous, ClientConnection client) {
+        Registration registration = byName.get(userName);
+        return registration != null && registration.client() == previous && byName.replace(userName, registration,
+                new Registration(client, null, registration.joinSequence()));
+    }
+
+    public ClientConnection find(String userName) {
+        Registration registration = byName.get(userName);
+        return registration == null ? null : registration.client();
+    }
+
+    // Returns null for the users of this node and for the unknown ones
+    public String nodeOf(String userName) {
+        Registration registration = byName.get(userName);
+        return registration == null ? null : registration.node();
+    }
+
+    public boolean contains(String userName) {
+        return byName.containsKey(userName);
+    }
+
+    public boolean isJoined(String userName) {
+        Registration registration = byName.get(userName);
+        return registration != null && isJoined(registration);
+    }
+
+    public List<String> usersOf(String node) {
+        List<String> users = new ArrayList<>();
+        byName.forEach((userName, registration) -> {
+            if (node.equals(registration.node())) {
+                users.add(userName);
+            }
+        });
+        return users;
+    }
+
+    public List<String> localUsers() {
+        List<String> users = new ArrayList<>();
+        byName.forEach((userName, registration) -> {
+            if (registration.node() == null && isJoined(registration)) {
+                users.add(userName);
+            }
+        });
+        return users;
+    }
+
+    public int size() {
+        return byName.size();
+    }
+
+    public int joinedSize() {
+        return joinOrder.size();
+    }
+
+    public Iterable<String> usersInOrder() {
+        return joinOrder.values();
+    }
+
+    public Roster snapshot() {
+        Roster current = roster;
+        long currentVersion = version.get();
+        if (current.version() != currentVersion) {
+            current = Roster.of(currentVersion, new ArrayList<>(joinOrder.values()));
+            roster = current;
+        }
+        return current;
+    }
+
+    private boolean isJoined(Registration registration) {
+        return joinOrder.containsKey(registration.joinSequence());
+    }
+
+    private long changeVersion() {
+        return version.incrementAndGet();
+    }
+
+    // Users connected to other nodes have no client but the id of their node
+    private record Registration(ClientConnection client, String node, long joinSequence) {
+    }
+}
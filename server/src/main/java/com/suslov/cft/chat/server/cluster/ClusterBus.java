@@ -0,0 +1,24 @@
+package com.suslov.cft.chat.server.cluster;
+
+import java.io.IOException;
+import java.util.List;
+
+// Transport between the server nodes; events from one node reach another in the order they were sent
+public interface ClusterBus extends AutoCloseable {
+
+    String getNodeId();
+
+    void start(ClusterListener listener) throws IOException;
+
+    // Sends the event to every other node that is currently reachable
+    void publish(ClusterEvent event);
+
+    // Returns false if the node is not reachable
+    boolean send(String nodeId, ClusterEvent event);
+
+    // The reachable nodes including this one, sorted by node id
+    List<String> members();
+
+    @Override
+    void close();
+}
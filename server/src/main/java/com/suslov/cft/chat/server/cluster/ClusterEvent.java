@@ -0,0 +1,56 @@
+package com.suslov.cft.chat.server.cluster;
+
+import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.common.codec.MessageCodec;
+import com.suslov.cft.chat.common.codec.WireFormat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public record ClusterEvent(Kind kind, String origin, long requestId, Message message) {
+    private static final MessageCodec CODEC = WireFormat.BINARY.getCodec();
+    private static final Kind[] KINDS = Kind.values();
+
+    public static ClusterEvent of(Kind kind, String origin, Message message) {
+        return new ClusterEvent(kind, origin, 0, message);
+    }
+
+    public String userName() {
+        return message.getUserName();
+    }
+
+    // Payload layout: kind byte, origin, request id, then the message as a binary frame
+    byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(kind.ordinal());
+        out.writeUTF(origin);
+        out.writeLong(requestId);
+        out.write(CODEC.encode(message));
+        return bytes.toByteArray();
+    }
+
+    static ClusterEvent decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int kindIndex = in.readUnsignedByte();
+        if (kindIndex >= KINDS.length) {
+            throw new IOException("Unknown cluster event kind " + kindIndex);
+        }
+        String origin = in.readUTF();
+        long requestId = in.readLong();
+        int offset = payload.length - in.available();
+        Message message = CODEC.decode(ByteBuffer.wrap(payload, offset, payload.length - offset));
+        if (message == null) {
+            throw new IOException("Truncated cluster event message");
+        }
+        return new ClusterEvent(KINDS[kindIndex], origin, requestId, message);
+    }
+
+    public enum Kind {
+        MESSAGE, USER_JOINED, USER_LEFT, RESERVE, RESERVE_GRANTED, RESERVE_DENIED, RELEASE, DIRECT
+    }
+}
@@ -0,0 +1,10 @@
+package com.suslov.cft.chat.server.cluster;
+
+public interface ClusterListener {
+
+    void onEvent(ClusterEvent event);
+
+    void onNodeUp(String nodeId);
+
+    void onNodeDown(String nodeId);
+}
@@ -0,0 +1,98 @@
+package com.suslov.cft.chat.server.cluster;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Connects the nodes running in one JVM; every node handles the events on its own thread, as it would with a
+// network transport, so the handlers of different nodes never run under each other's locks
+public class LoopbackClusterBus implements ClusterBus {
+    private static final Map<String, Set<LoopbackClusterBus>> GROUPS = new ConcurrentHashMap<>();
+
+    private final String group;
+    @Getter
+    private final String nodeId;
+    private final ExecutorService executor;
+    private volatile ClusterListener listener;
+
+    public LoopbackClusterBus(String group, String nodeId) {
+        this.group = group;
+        this.nodeId = nodeId;
+        this.executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "cluster-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void start(ClusterListener listener) {
+        this.listener = listener;
+        Set<LoopbackClusterBus> nodes = GROUPS.computeIfAbsent(group, name -> ConcurrentHashMap.newKeySet());
+        synchronized (nodes) {
+            for (LoopbackClusterBus node : nodes) {
+                node.deliver(() -> node.listener.onNodeUp(nodeId));
+                deliver(() -> listener.onNodeUp(node.nodeId));
+            }
+            nodes.add(this);
+        }
+    }
+
+    @Override
+    public void publish(ClusterEvent event) {
+        for (LoopbackClusterBus node : GROUPS.getOrDefault(group, Set.of())) {
+            if (node != this) {
+                node.deliver(() -> node.listener.onEvent(event));
+            }
+        }
+    }
+
+    @Override
+    public boolean send(String targetNodeId, ClusterEvent event) {
+        for (LoopbackClusterBus node : GROUPS.getOrDefault(group, Set.of())) {
+            if (node.nodeId.equals(targetNodeId)) {
+                node.deliver(() -> node.listener.onEvent(event));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public List<String> members() {
+        List<String> members = new ArrayList<>();
+        for (LoopbackClusterBus node : GROUPS.getOrDefault(group, Set.of())) {
+            members.add(node.nodeId);
+        }
+        if (!members.contains(nodeId)) {
+            members.add(nodeId);
+        }
+        members.sort(null);
+        return members;
+    }
+
+    @Override
+    public void close() {
+        Set<LoopbackClusterBus> nodes = GROUPS.getOrDefault(group, Set.of());
+        synchronized (nodes) {
+            if (nodes.remove(this)) {
+                for (LoopbackClusterBus node : nodes) {
+                    node.deliver(() -> node.listener.onNodeDown(nodeId));
+                }
+            }
+        }
+        executor.shutdown();
+    }
+
+    private void deliver(Runnable task) {
+        if (!executor.isShutdown()) {
+            executor.execute(task);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.suslov.cft.chat.server.cluster;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Full mesh of TCP links: every node dials every peer from the list and sends only over its own links, the links
+// accepted from the peers are only read, so each direction keeps the order of the events. A dialing node proves it
+// knows the cluster secret by signing a random challenge of the accepting node
+@Slf4j
+public class TcpClusterBus implements ClusterBus {
+    private static final long RECONNECT_MILLIS = 1_000;
+    private static final int MAX_EVENT_LENGTH = 1024 * 1024;
+    // Events for a peer that is down wait for it up to this many, the later ones are dropped
+    private static final int QUEUE_CAPACITY = 10_000;
+    private static final int CHALLENGE_LENGTH = 16;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    @Getter
+    private final String nodeId;
+    private final String bindAddress;
+    private final int port;
+    private final List<InetSocketAddress> peers;
+    private final SecretKeySpec key;
+    private final List<PeerLink> peerLinks;
+    private final Map<String, PeerLink> links;
+    private final Map<String, Socket> inbound;
+    private volatile ClusterListener listener;
+    private volatile boolean running;
+    private ServerSocket serverSocket;
+
+    public TcpClusterBus(String nodeId, String bindAddress, int port, List<InetSocketAddress> peers, String secret) {
+        this.nodeId = nodeId;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.peers = peers;
+        // The prefix keeps the key non-empty when no secret is set
+        this.key = new SecretKeySpec(("chat-cluster:" + secret).getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM);
+        this.peerLinks = new ArrayList<>();
+        this.links = new ConcurrentHashMap<>();
+        this.inbound = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void start(ClusterListener listener) throws IOException {
+        this.listener = listener;
+        this.running = true;
+        serverSocket = new ServerSocket(port, 50, InetAddress.getByName(bindAddress));
+        startThread(this::acceptPeers, "cluster-acceptor");
+        for (InetSocketAddress peer : peers) {
+            PeerLink link = new PeerLink(peer);
+            peerLinks.add(link);
+            startThread(link::run, "cluster-link-" + peer.getPort());
+        }
+        log.info("[SERVER] Cluster node '" + nodeId + "' is listening on '" + bindAddress + ":" + port + "' for "
+                + peers.size() + " peers");
+    }
+
+    // Queued for the peers that are down as well, so a link that comes back up sends what it has missed
+    @Override
+    public void publish(ClusterEvent event) {
+        for (PeerLink link : peerLinks) {
+            link.enqueue(event);
+        }
+    }
+
+    @Override
+    public boolean send(String targetNodeId, ClusterEvent event) {
+        PeerLink link = links.get(targetNodeId);
+        return link != null && link.enqueue(event);
+    }
+
+    // A peer counts only while the links in both directions are up: both nodes of a pair then see the same
+    // connections, so they agree on each other's membership except for the moment a link changes
+    @Override
+    public List<String> members() {
+        List<String> members = new ArrayList<>();
+        for (String peerId : links.keySet()) {
+            if (inbound.containsKey(peerId)) {
+                members.add(peerId);
+            }
+        }
+        members.add(nodeId);
+        members.sort(null);
+        return members;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            log.warn("[SERVER] Cluster socket closing error: " + e.getMessage());
+        }
+        for (PeerLink link : links.values()) {
+            link.disconnect();
+        }
+    }
+
+    private void acceptPeers() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                startThread(() -> readPeer(socket), "cluster-reader-" + socket.getPort());
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("[SERVER] Cluster peer accepting error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // The dialing node gets a challenge, sends its id with the signed challenge and gets this node's id back
+    private void readPeer(Socket socket) {
+        String peerId = null;
+        boolean registered = false;
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            byte[] challenge = new byte[CHALLENGE_LENGTH];
+            RANDOM.nextBytes(challenge);
+            out.write(challenge);
+            out.flush();
+            peerId = in.readUTF();
+            byte[] proof = new byte[sign(challenge, peerId).length];
+            in.readFully(proof);
+            if (!MessageDigest.isEqual(proof, sign(challenge, peerId))) {
+                throw new IOException("node has failed to authenticate from '" + socket.getRemoteSocketAddress() + "'");
+            }
+            out.writeUTF(nodeId);
+            out.flush();
+            inbound.put(peerId, socket);
+            registered = true;
+            while (running) {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_EVENT_LENGTH) {
+                    throw new IOException("Malformed cluster event length " + length);
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                listener.onEvent(ClusterEvent.decode(payload));
+            }
+        } catch (EOFException e) {
+            log.info("[SERVER] Cluster node '" + peerId + "' has closed the link");
+        } catch (IOException e) {
+            log.warn("[SERVER] Cluster link reading error from node '" + peerId + "': " + e.getMessage());
+        }
+        if (!registered) {
+            return;
+        }
+        inbound.remove(peerId, socket);
+        // The peer is gone, the link to it is dropped too instead of waiting for the next write to fail
+        PeerLink link = links.get(peerId);
+        if (link != null) {
+            link.disconnect();
+        }
+    }
+
+    private byte[] sign(byte[] challenge, String signerId) throws IOException {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            mac.update(challenge);
+            return mac.doFinal(signerId.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cluster challenge cannot be signed: " + e.getMessage(), e);
+        }
+    }
+
+    private static void startThread(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private class PeerLink {
+        private final InetSocketAddress address;
+        private final BlockingQueue<ClusterEvent> queue;
+        private volatile Socket socket;
+
+        private long dropped;
+
+        private PeerLink(InetSocketAddress address) {
+            this.address = address;
+            this.queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        }
+
+        private boolean enqueue(ClusterEvent event) {
+            if (queue.offer(event)) {
+                return true;
+            }
+            synchronized (this) {
+                if (dropped++ == 0) {
+                    log.warn("[SERVER] Cluster queue to '" + address + "' is full, events are dropped until it is sent");
+                }
+            }
+            return false;
+        }
+
+        private void run() {
+            while (running) {
+                String peerId = null;
+                try (Socket connected = new Socket()) {
+                    socket = connected;
+                    connected.connect(address);
+                    connected.setTcpNoDelay(true);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connected.getOutputStream()));
+                    DataInputStream in = new DataInputStream(connected.getInputStream());
+                    byte[] challenge = new byte[CHALLENGE_LENGTH];
+                    in.readFully(challenge);
+                    out.writeUTF(nodeId);
+                    out.write(sign(challenge, nodeId));
+                    out.flush();
+                    peerId = in.readUTF();
+                    links.put(peerId, this);
+                    log.info("[SERVER] Cluster link to node '" + peerId + "' by address '" + address + "' is up, "
+                            + queue.size() + " events are waiting for it" + takeDropped());
+                    listener.onNodeUp(peerId);
+                    writeEvents(out);
+                } catch (IOException e) {
+                    if (peerId != null) {
+                        log.warn("[SERVER] Cluster link to node '" + peerId + "' is down: " + e.getMessage());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (peerId != null && links.remove(peerId, this)) {
+                    listener.onNodeDown(peerId);
+                }
+                sleep();
+            }
+        }
+
+        // Events queued while writing are sent in the same flush; the ones of a flush that fails are lost with the link
+        private void writeEvents(DataOutputStream out) throws IOException, InterruptedException {
+            while (running) {
+                ClusterEvent event = queue.poll(RECONNECT_MILLIS, TimeUnit.MILLISECONDS);
+                if (event == null) {
+                    if (socket.isClosed()) {
+                        throw new IOException("link is closed");
+                    }
+                    continue;
+                }
+                int count = 0;
+                try {
+                    do {
+                        byte[] payload = event.encode();
+                        out.writeInt(payload.length);
+                        out.write(payload);
+                        count++;
+                        event = queue.poll();
+                    } while (event != null);
+                    out.flush();
+                } catch (IOException e) {
+                    throw new IOException(e.getMessage() + ", " + count + " events may not have been delivered", e);
+                }
+            }
+        }
+
+        private synchronized String takeDropped() {
+            long count = dropped;
+            dropped = 0;
+            return count == 0 ? "" : ", " + count + " events have been dropped while it was down";
+        }
+
+        private void disconnect() {
+            try {
+                Socket current = socket;
+                if (current != null) {
+                    current.close();
+                }
+            } catch (IOException e) {
+                log.warn("[SERVER] Cluster link closing error: " + e.getMessage());
+            }
+        }
+
+        private void sleep() {
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.suslov.cft.chat.server.engine;
+
+import com.suslov.cft.chat.server.metrics.ServerMetrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+class CountingInputStream extends FilterInputStream {
+    private final ServerMetrics metrics;
+
+    CountingInputStream(InputStream in, ServerMetrics metrics) {
+        super(in);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value = super.read();
+        if (value >= 0) {
+            metrics.bytesReceived(1);
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+        if (read > 0) {
+            metrics.bytesReceived(read);
+        }
+        return read;
+    }
+}
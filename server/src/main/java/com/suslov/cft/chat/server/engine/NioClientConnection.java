@@ -0,0 +1,215 @@
+package com.suslov.cft.chat.server.engine;
+
+import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.common.codec.MessageCodec;
+import com.suslov.cft.chat.server.ChatServer;
+import com.suslov.cft.chat.server.ClientConnection;
+import com.suslov.cft.chat.server.Frame;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@Slf4j
+class NioClientConnection extends ClientConnection {
+    private static final int INITIAL_PENDING_SIZE = 1024;
+
+    private final ChatServer server;
+    private final NioEventLoop eventLoop;
+    private final SocketChannel channel;
+    private final AtomicBoolean flushScheduled;
+    private SelectionKey key;
+    private ByteBuffer pending;
+    private final ByteBuffer[] gather;
+    private final List<Frame> drained;
+    private final long flushWindowNanos;
+    private int gatherCount;
+    private boolean outputShutdown;
+
+    NioClientConnection(ChatServer server, NioEventLoop eventLoop, SocketChannel channel) {
+        super(channel.socket().getInetAddress().getHostAddress(), channel.socket().getPort(),
+                server.createOutboundQueue());
+        this.server = server;
+        this.eventLoop = eventLoop;
+        this.channel = channel;
+        this.flushScheduled = new AtomicBoolean();
+        this.gather = new ByteBuffer[server.getSettings().getOutboundBatchFrames()];
+        this.drained = new ArrayList<>(gather.length);
+        this.flushWindowNanos = TimeUnit.MILLISECONDS.toNanos(server.getSettings().getFlushWindowMillis());
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    @Override
+    protected void signalWriter() {
+        // A fan-out done on this loop would otherwise fill the queue before the scheduled flush gets a chance to run
+        if (eventLoop.inEventLoop() && getQueueDepth() >= gather.length) {
+            flushScheduled.set(true);
+            flush();
+            return;
+        }
+        if (!flushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        if (flushWindowNanos > 0) {
+            eventLoop.schedule(this::flush, flushWindowNanos);
+        } else {
+            eventLoop.execute(this::flush);
+        }
+    }
+
+    @Override
+    protected void abort() {
+        eventLoop.execute(() -> server.closeConnection(this));
+    }
+
+    @Override
+    public void close() {
+        outbound.close();
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            if (key != null) {
+                key.cancel();
+            }
+            channel.close();
+            log.info("[SERVER] Client connection by host '{}' and port '{}' has successfully closed, {}", getHost(),
+                    getPort(), describeOutbound());
+        } catch (IOException e) {
+            log.error("[SERVER] Error closing client connection by host '{}' and port '{}': {}", getHost(), getPort(),
+                    e.getMessage());
+        }
+    }
+
+    void handleRead(ByteBuffer readBuffer) throws IOException {
+        readBuffer.clear();
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            server.closeConnection(this);
+            return;
+        }
+        server.getMetrics().bytesReceived(read);
+        readBuffer.flip();
+        if (pending == null || pending.position() == 0) {
+            decodeMessages(readBuffer);
+            if (readBuffer.hasRemaining()) {
+                appendPending(readBuffer);
+            }
+        } else {
+            appendPending(readBuffer);
+            pending.flip();
+            decodeMessages(pending);
+            pending.compact();
+        }
+    }
+
+    void handleWrite() {
+        flush();
+    }
+
+    void handleError(Exception e) {
+        log.warn("[SERVER] Error reading incoming message from client by host '{}' and port '{}': {}", getHost(),
+                getPort(), e.getMessage());
+        server.closeConnection(this);
+    }
+
+    void handleFailure(RuntimeException e) {
+        log.error("[SERVER] Error processing message from client by host '{}' and port '{}'", getHost(), getPort(), e);
+        server.closeConnection(this);
+    }
+
+    private void decodeMessages(ByteBuffer buffer) throws IOException {
+        Message message;
+        while (channel.isOpen() && (message = getInboundFormat().getCodec().decode(buffer)) != null) {
+            server.processReceivedMessage(this, message);
+        }
+    }
+
+    private void appendPending(ByteBuffer source) throws IOException {
+        int required = (pending == null ? 0 : pending.position()) + source.remaining();
+        if (required > MessageCodec.MAX_FRAME_LENGTH + INITIAL_PENDING_SIZE) {
+            throw new IOException("Incoming message exceeds " + MessageCodec.MAX_FRAME_LENGTH + " bytes");
+        }
+        if (pending == null || pending.remaining() < source.remaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(INITIAL_PENDING_SIZE, Integer.highestOneBit(required) << 1));
+            if (pending != null) {
+                grown.put(pending.flip());
+            }
+            pending = grown;
+        }
+        pending.put(source);
+    }
+
+    // Once a finished queue has been written out the output is shut down, the frames offered after that are dropped
+    private void flush() {
+        if (!channel.isOpen() || outputShutdown) {
+            return;
+        }
+        try {
+            while (writeOutbound()) {
+                flushScheduled.set(false);
+                if (outbound.size() == 0 || !flushScheduled.compareAndSet(false, true)) {
+                    setWriteInterest(false);
+                    if (outbound.isFinishing() && outbound.size() == 0) {
+                        outputShutdown = true;
+                        channel.shutdownOutput();
+                    }
+                    return;
+                }
+            }
+            setWriteInterest(true);
+        } catch (IOException e) {
+            server.getMetrics().sendFailed();
+            handleError(e);
+        }
+    }
+
+    // Gathers every queued frame into a single write call; returns false if the socket buffer is full
+    private boolean writeOutbound() throws IOException {
+        while (true) {
+            if (gatherCount < gather.length) {
+                outbound.drainTo(drained, gather.length - gatherCount);
+                for (Frame frame : drained) {
+                    gather[gatherCount++] = frame.toByteBuffer();
+                }
+                drained.clear();
+            }
+            if (gatherCount == 0) {
+                return true;
+            }
+            long start = System.nanoTime();
+            long bytes = channel.write(gather, 0, gatherCount);
+            long nanos = System.nanoTime() - start;
+            int written = 0;
+            while (written < gatherCount && !gather[written].hasRemaining()) {
+                written++;
+            }
+            System.arraycopy(gather, written, gather, 0, gatherCount - written);
+            Arrays.fill(gather, gatherCount - written, gatherCount, null);
+            gatherCount -= written;
+            server.getMetrics().writeCompleted(written, bytes, nanos);
+            recordWrite(written);
+            if (gatherCount > 0) {
+                return false;
+            }
+        }
+    }
+
+    private void setWriteInterest(boolean enabled) {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        int ops = key.interestOps();
+        key.interestOps(enabled ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE);
+    }
+}
@@ -0,0 +1,148 @@
+package com.suslov.cft.chat.server.engine;
+
+import com.suslov.cft.chat.server.ChatServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@Slf4j
+class NioEventLoop implements Runnable {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final ChatServer server;
+    private final Selector selector;
+    private final Queue<Runnable> tasks;
+    private final AtomicBoolean wakeupPending;
+    private final ByteBuffer readBuffer;
+    private final PriorityQueue<ScheduledTask> scheduledTasks;
+    private volatile Thread thread;
+
+    NioEventLoop(ChatServer server) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.wakeupPending = new AtomicBoolean();
+        this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        this.scheduledTasks = new PriorityQueue<>(Comparator.comparingLong(ScheduledTask::deadline));
+    }
+
+    void register(SocketChannel channel) {
+        execute(() -> {
+            NioClientConnection connection = new NioClientConnection(server, this, channel);
+            try {
+                connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+                server.addConnection(connection);
+            } catch (IOException e) {
+                log.warn("[SERVER] Client connection error: " + e.getMessage());
+                connection.close();
+            }
+        });
+    }
+
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    void schedule(Runnable task, long delayNanos) {
+        long deadline = System.nanoTime() + delayNanos;
+        execute(() -> scheduledTasks.add(new ScheduledTask(deadline, task)));
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        while (true) {
+            try {
+                select();
+                wakeupPending.set(false);
+                runTasks();
+                runScheduledTasks();
+                processSelectedKeys();
+            } catch (IOException | RuntimeException e) {
+                log.error("[SERVER] NIO event loop error", e);
+            }
+        }
+    }
+
+    private void select() throws IOException {
+        ScheduledTask next = scheduledTasks.peek();
+        if (next == null) {
+            selector.select();
+            return;
+        }
+        long delayMillis = TimeUnit.NANOSECONDS.toMillis(next.deadline() - System.nanoTime() + 999_999);
+        if (delayMillis > 0) {
+            selector.select(delayMillis);
+        } else {
+            selector.selectNow();
+        }
+    }
+
+    private void runScheduledTasks() {
+        long now = System.nanoTime();
+        ScheduledTask next;
+        while ((next = scheduledTasks.peek()) != null && next.deadline() - now <= 0) {
+            scheduledTasks.poll();
+            runTask(next.task());
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            runTask(task);
+        }
+    }
+
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            log.error("[SERVER] NIO event loop task error", e);
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            NioClientConnection connection = (NioClientConnection) key.attachment();
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    connection.handleRead(readBuffer);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.handleWrite();
+                }
+            } catch (IOException | CancelledKeyException e) {
+                connection.handleError(e);
+            } catch (RuntimeException e) {
+                // A message the server has failed on costs only its own connection, the loop serves the others
+                connection.handleFailure(e);
+            }
+        }
+    }
+
+    private record ScheduledTask(long deadline, Runnable task) {
+    }
+}
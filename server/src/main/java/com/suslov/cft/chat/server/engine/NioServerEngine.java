@@ -0,0 +1,73 @@
+package com.suslov.cft.chat.server.engine;
+
+import com.suslov.cft.chat.server.ChatServer;
+import com.suslov.cft.chat.server.ServerEngine;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+@Slf4j
+public class NioServerEngine implements ServerEngine {
+    private final ChatServer server;
+    private final NioEventLoop[] eventLoops;
+    private volatile ServerSocketChannel serverChannel;
+
+    public NioServerEngine(ChatServer server, int threads) {
+        this.server = server;
+        this.eventLoops = new NioEventLoop[threads];
+    }
+
+    @Override
+    public void start(int port) throws IOException {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            this.serverChannel = serverChannel;
+            serverChannel.bind(new InetSocketAddress(port));
+            startEventLoops();
+            int next = 0;
+            while (true) {
+                SocketChannel channel;
+                try {
+                    channel = serverChannel.accept();
+                } catch (ClosedChannelException e) {
+                    return;
+                }
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    eventLoops[next].register(channel);
+                    next = (next + 1) % eventLoops.length;
+                } catch (IOException e) {
+                    log.warn("[SERVER] Client connection error: " + e.getMessage());
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    // The event loops keep running, so the accepted connections can still write out what is queued for them
+    @Override
+    public void stop() {
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            log.warn("[SERVER] Error closing server socket: " + e.getMessage());
+        }
+    }
+
+    private void startEventLoops() throws IOException {
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new NioEventLoop(server);
+            Thread thread = new Thread(eventLoops[i], "nio-event-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        log.info("[SERVER] Started " + eventLoops.length + " NIO event loops");
+    }
+}
@@ -0,0 +1,118 @@
+package com.suslov.cft.chat.server.engine;
+
+import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.common.codec.MessageReader;
+import com.suslov.cft.chat.server.ChatServer;
+import com.suslov.cft.chat.server.ClientConnection;
+import com.suslov.cft.chat.server.Frame;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+class SocketClientConnection extends ClientConnection {
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final ChatServer server;
+    private final Socket clientSocket;
+    private final MessageReader in;
+    private final OutputStream out;
+
+    SocketClientConnection(ChatServer server, Socket clientSocket) throws IOException {
+        super(clientSocket.getInetAddress().getHostName(), clientSocket.getPort(), server.createOutboundQueue());
+        this.server = server;
+        this.clientSocket = clientSocket;
+        this.in = new MessageReader(new CountingInputStream(clientSocket.getInputStream(), server.getMetrics()));
+        this.out = new BufferedOutputStream(clientSocket.getOutputStream(), WRITE_BUFFER_SIZE);
+    }
+
+    void start(ThreadFactory threadFactory) {
+        threadFactory.newThread(this::readIncoming).start();
+        threadFactory.newThread(this::writeOutgoing).start();
+    }
+
+    private void readIncoming() {
+        try {
+            Message message;
+            while ((message = in.read(getInboundFormat().getCodec())) != null) {
+                server.processReceivedMessage(this, message);
+            }
+        } catch (IOException e) {
+            log.warn("[SERVER] Error reading incoming message from client by host '{}' and port '{}': {}",
+                    getHost(), getPort(), e.getMessage());
+        } catch (RuntimeException e) {
+            log.error("[SERVER] Error processing message from client by host '{}' and port '{}'", getHost(),
+                    getPort(), e);
+        } finally {
+            // Whatever has stopped the reader, the connection, its writer and the user name are released
+            server.closeConnection(this);
+        }
+    }
+
+    private void writeOutgoing() {
+        int maxFrames = server.getSettings().getOutboundBatchFrames();
+        long windowNanos = TimeUnit.MILLISECONDS.toNanos(server.getSettings().getFlushWindowMillis());
+        List<Frame> batch = new ArrayList<>(maxFrames);
+        try {
+            int count;
+            while ((count = outbound.takeBatch(batch, maxFrames, windowNanos)) > 0) {
+                long start = System.nanoTime();
+                long bytes = 0;
+                for (Frame frame : batch) {
+                    frame.writeTo(out);
+                    bytes += frame.length();
+                }
+                out.flush();
+                server.getMetrics().writeCompleted(count, bytes, System.nanoTime() - start);
+                recordWrite(count);
+                batch.clear();
+            }
+            if (outbound.isFinishing() && !outbound.isClosed()) {
+                clientSocket.shutdownOutput();
+            }
+        } catch (IOException e) {
+            server.getMetrics().sendFailed();
+            log.warn("[SERVER] Error sending message to client by host '{}' and port '{}': {}", getHost(),
+                    getPort(), e.getMessage());
+            abort();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    protected void signalWriter() {
+        // the writer thread is woken up by the outbound queue itself
+    }
+
+    @Override
+    protected void abort() {
+        outbound.close();
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            log.error("[SERVER] Error closing client connection by host '{}' and port '{}': {}", getHost(), getPort(),
+                    e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        outbound.close();
+        try {
+            if (!clientSocket.isClosed()) {
+                clientSocket.close();
+            }
+            log.info("[SERVER] Client connection by host '{}' and port '{}' has successfully closed, {}", getHost(),
+                    getPort(), describeOutbound());
+        } catch (IOException e) {
+            log.error("[SERVER] Error closing client connection by host '{}' and port '{}': {}", getHost(), getPort(),
+                    e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.suslov.cft.chat.server.engine;
+
+import com.suslov.cft.chat.server.ChatServer;
+import com.suslov.cft.chat.server.ServerEngine;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ThreadFactory;
+
+@Slf4j
+public class SocketServerEngine implements ServerEngine {
+    private final ChatServer server;
+    private final ThreadFactory threadFactory;
+    private volatile ServerSocket serverSocket;
+
+    private SocketServerEngine(ChatServer server, ThreadFactory threadFactory) {
+        this.server = server;
+        this.threadFactory = threadFactory;
+    }
+
+    public static SocketServerEngine withPlatformThreads(ChatServer server) {
+        return new SocketServerEngine(server, Thread::new);
+    }
+
+    public static SocketServerEngine withVirtualThreads(ChatServer server) {
+        ThreadFactory factory = createVirtualThreadFactory();
+        if (factory == null) {
+            log.warn("[SERVER] Virtual threads are not supported by Java " + Runtime.version().feature()
+                    + ", platform threads are used instead");
+            return withPlatformThreads(server);
+        }
+        return new SocketServerEngine(server, factory);
+    }
+
+    // Looked up reflectively so that the server still builds and runs on Java 17
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, "client-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void start(int port) throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            this.serverSocket = serverSocket;
+            while (true) {
+                Socket clientSocket;
+                try {
+                    clientSocket = serverSocket.accept();
+                } catch (SocketException e) {
+                    if (serverSocket.isClosed()) {
+                        return;
+                    }
+                    throw e;
+                }
+                try {
+                    SocketClientConnection connection = new SocketClientConnection(server, clientSocket);
+                    server.addConnection(connection);
+                    connection.start(threadFactory);
+                } catch (IOException e) {
+                    log.warn("[SERVER] Client connection error: " + e.getMessage());
+                    clientSocket.close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            log.warn("[SERVER] Error closing server socket: " + e.getMessage());
+        }
+    }
+}
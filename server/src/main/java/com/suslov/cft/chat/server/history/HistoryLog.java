@@ -0,0 +1,244 @@
+package com.suslov.cft.chat.server.history;
+
+import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.common.codec.BinaryMessageCodec;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+// Stamps messages with a sequence number and a timestamp, keeps the most recent ones in memory and appends all of
+// them to memory-mapped segments on a background thread
+@Slf4j
+public class HistoryLog {
+    private static final BinaryMessageCodec CODEC = new BinaryMessageCodec();
+
+    private final Path dir;
+    private final boolean persistent;
+    private final int segmentBytes;
+    private final int retentionSegments;
+    private final int memoryMessages;
+    private final long flushMillis;
+    private final AtomicLong lastSeq;
+    private final AtomicReferenceArray<Message> recent;
+    private final BlockingQueue<Message> pending;
+    private final List<LogSegment> segments;
+    private volatile long writtenSeq;
+    private volatile boolean running;
+    private Thread writer;
+
+    public HistoryLog(Path dir, boolean persistent, int segmentBytes, int retentionSegments, int memoryMessages,
+                      long flushMillis) {
+        this.dir = dir;
+        this.persistent = persistent;
+        this.segmentBytes = segmentBytes;
+        this.retentionSegments = retentionSegments;
+        this.memoryMessages = memoryMessages;
+        this.flushMillis = flushMillis;
+        this.lastSeq = new AtomicLong();
+        this.recent = new AtomicReferenceArray<>(memoryMessages);
+        this.pending = new LinkedBlockingQueue<>();
+        this.segments = new CopyOnWriteArrayList<>();
+    }
+
+    public void start() throws IOException {
+        if (!persistent) {
+            return;
+        }
+        Files.createDirectories(dir);
+        recover();
+        running = true;
+        writer = new Thread(this::writeLoop, "history-writer");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("[SERVER] History log in '" + dir.toAbsolutePath() + "' has started from sequence " + lastSeq.get());
+    }
+
+    public Message append(Message message) {
+        Message stamped = message.withSeq(lastSeq.incrementAndGet()).withTimestamp(System.currentTimeMillis());
+        remember(stamped);
+        if (persistent) {
+            pending.add(stamped);
+        }
+        return stamped;
+    }
+
+    // Returns up to maxCount messages following afterSeq; the older ones are read from the segments, the recent ones
+    // straight from memory, and messages already removed by retention are skipped. The batch may come out shorter
+    // than asked, but never with a gap
+    public List<Message> read(long afterSeq, int maxCount) {
+        List<Message> result = new ArrayList<>(Math.min(maxCount, memoryMessages));
+        long firstRecent = firstRecentSeq(afterSeq + 1);
+        if (afterSeq + 1 < firstRecent) {
+            awaitWritten(Math.min(firstRecent - 1, afterSeq + maxCount));
+            readSegments(afterSeq, firstRecent, maxCount, result);
+        }
+        long seq = Math.max(result.isEmpty() ? afterSeq : result.get(result.size() - 1).getSeq(), firstRecent - 1);
+        while (result.size() < maxCount && seq < lastSeq.get()) {
+            Message message = recent.get(slot(++seq));
+            if (message == null || message.getSeq() != seq) {
+                break;
+            }
+            result.add(message);
+        }
+        return result;
+    }
+
+    // Returns the messages following afterSeq from memory only, or null if they are not all held there anymore. Never
+    // waits for the disk, so it may be called with the appends stopped
+    public List<Message> readRecent(long afterSeq) {
+        long last = lastSeq.get();
+        List<Message> result = new ArrayList<>((int) Math.max(0, last - afterSeq));
+        for (long seq = afterSeq + 1; seq <= last; seq++) {
+            Message message = recent.get(slot(seq));
+            if (message == null || message.getSeq() != seq) {
+                return null;
+            }
+            result.add(message);
+        }
+        return result;
+    }
+
+    public long getLastSeq() {
+        return lastSeq.get();
+    }
+
+    public void close() {
+        running = false;
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Under a burst the writer may fall behind the memory window: the messages already gone from memory but not yet
+    // appended to a segment are waited for instead of being skipped
+    private void awaitWritten(long seq) {
+        while (running && writtenSeq < seq) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private void remember(Message message) {
+        recent.set(slot(message.getSeq()), message);
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % memoryMessages);
+    }
+
+    // The oldest message from fromSeq on that is still held in memory, all the later ones are held there too
+    private long firstRecentSeq(long fromSeq) {
+        long last = lastSeq.get();
+        for (long seq = Math.max(fromSeq, last - memoryMessages + 1); seq <= last; seq++) {
+            Message message = recent.get(slot(seq));
+            if (message != null && message.getSeq() == seq) {
+                return seq;
+            }
+        }
+        return last + 1;
+    }
+
+    private void readSegments(long afterSeq, long beforeSeq, int maxCount, List<Message> result) {
+        for (LogSegment segment : segments) {
+            if (segment.getLastSeq() <= afterSeq) {
+                continue;
+            }
+            if (segment.getFirstSeq() >= beforeSeq || result.size() >= maxCount) {
+                return;
+            }
+            segment.read(afterSeq + 1, maxCount - result.size(), message -> {
+                if (message.getSeq() < beforeSeq) {
+                    result.add(message);
+                }
+            });
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(path -> path.getFileName().toString().endsWith(LogSegment.SUFFIX)).sorted().toList();
+        }
+        for (Path file : files) {
+            LogSegment segment = LogSegment.open(file, this::remember);
+            segments.add(segment);
+            lastSeq.set(Math.max(lastSeq.get(), segment.getLastSeq()));
+        }
+        writtenSeq = lastSeq.get();
+    }
+
+    private void writeLoop() {
+        long lastForce = System.currentTimeMillis();
+        boolean dirty = false;
+        while (running || !pending.isEmpty()) {
+            try {
+                Message message = pending.poll(flushMillis, TimeUnit.MILLISECONDS);
+                while (message != null) {
+                    try {
+                        write(message);
+                    } finally {
+                        // a message that has failed to be written is not waited for by the readers either
+                        writtenSeq = message.getSeq();
+                    }
+                    dirty = true;
+                    message = pending.poll();
+                }
+                if (dirty && (System.currentTimeMillis() - lastForce >= flushMillis || !running)) {
+                    activeSegment().force();
+                    lastForce = System.currentTimeMillis();
+                    dirty = false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                log.error("[SERVER] History log write error: " + e.getMessage());
+            }
+        }
+    }
+
+    private void write(Message message) throws IOException {
+        byte[] record = CODEC.encode(message);
+        LogSegment active = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (active == null || !active.append(record, message.getSeq())) {
+            if (active != null) {
+                active.force();
+            }
+            active = LogSegment.create(dir, message.getSeq(), Math.max(segmentBytes, record.length + 1));
+            segments.add(active);
+            applyRetention();
+            active.append(record, message.getSeq());
+        }
+    }
+
+    private LogSegment activeSegment() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private void applyRetention() {
+        while (segments.size() > retentionSegments) {
+            LogSegment oldest = segments.remove(0);
+            try {
+                Files.deleteIfExists(oldest.getPath());
+            } catch (IOException e) {
+                log.warn("[SERVER] History segment '" + oldest.getPath() + "' deletion error: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.suslov.cft.chat.server.history;
+
+import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.common.codec.BinaryMessageCodec;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+// Memory-mapped file of binary frames; the unused tail stays zeroed, so a zero length byte marks the end of data.
+// The records of a segment have consecutive sequence numbers, so a sparse index of the offsets of every n-th record
+// lets a read start close to the requested one
+class LogSegment {
+    static final String SUFFIX = ".log";
+    private static final BinaryMessageCodec CODEC = new BinaryMessageCodec();
+    private static final int INDEX_INTERVAL = 64;
+
+    @Getter
+    private final Path path;
+    @Getter
+    private final long firstSeq;
+    private final MappedByteBuffer buffer;
+    @Getter
+    private volatile long lastSeq;
+    private volatile int committed;
+    // Written by the appending thread only; an entry is visible to the readers once the size covers it
+    private volatile int[] index = new int[16];
+    private volatile int indexSize;
+    private int records;
+
+    private LogSegment(Path path, long firstSeq, MappedByteBuffer buffer) {
+        this.path = path;
+        this.firstSeq = firstSeq;
+        this.buffer = buffer;
+        this.lastSeq = firstSeq - 1;
+    }
+
+    static LogSegment create(Path dir, long firstSeq, int size) throws IOException {
+        Path path = dir.resolve(String.format("%020d", firstSeq) + SUFFIX);
+        return new LogSegment(path, firstSeq, map(path, size));
+    }
+
+    // Reads the existing records so that appends continue right after the last complete one
+    static LogSegment open(Path path, Consumer<Message> consumer) throws IOException {
+        long firstSeq = Long.parseLong(path.getFileName().toString().replace(SUFFIX, ""));
+        LogSegment segment = new LogSegment(path, firstSeq, map(path, (int) Files.size(path)));
+        int end = segment.read(0, segment.buffer.capacity(), (offset, message) -> {
+            segment.lastSeq = message.getSeq();
+            segment.indexRecord(offset);
+            consumer.accept(message);
+            return true;
+        });
+        segment.buffer.position(end);
+        while (segment.buffer.hasRemaining() && segment.buffer.get(segment.buffer.position()) != 0) {
+            segment.buffer.put((byte) 0);
+        }
+        segment.buffer.position(end);
+        segment.committed = end;
+        return segment;
+    }
+
+    boolean append(byte[] record, long seq) {
+        if (buffer.remaining() <= record.length) {
+            return false;
+        }
+        int offset = buffer.position();
+        buffer.put(record);
+        lastSeq = seq;
+        committed = buffer.position();
+        indexRecord(offset);
+        return true;
+    }
+
+    // Safe to call while the segment is appended to: only the records written completely are read. Decoding starts at
+    // the indexed record nearest before fromSeq and stops once maxCount records from fromSeq on have been passed on
+    void read(long fromSeq, int maxCount, Consumer<Message> consumer) {
+        int size = indexSize;
+        int[] offsets = index;
+        int limit = committed;
+        int slot = (int) Math.min(Math.max(0, fromSeq - firstSeq) / INDEX_INTERVAL, size - 1L);
+        // A record lost to a write error leaves a gap in the numbering, then an earlier entry is needed
+        while (slot > 0 && seqAt(offsets[slot], limit) > fromSeq) {
+            slot--;
+        }
+        int start = slot < 0 ? 0 : offsets[slot];
+        if (start >= limit || maxCount <= 0) {
+            return;
+        }
+        int[] count = new int[1];
+        read(start, limit, (offset, message) -> {
+            if (message.getSeq() < fromSeq) {
+                return true;
+            }
+            consumer.accept(message);
+            return ++count[0] < maxCount;
+        });
+    }
+
+    private long seqAt(int offset, int limit) {
+        long[] seq = {Long.MAX_VALUE};
+        read(offset, limit, (recordOffset, message) -> {
+            seq[0] = message.getSeq();
+            return false;
+        });
+        return seq[0];
+    }
+
+    private void indexRecord(int offset) {
+        if (records++ % INDEX_INTERVAL != 0) {
+            return;
+        }
+        int[] current = index;
+        if (indexSize == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+            index = current;
+        }
+        current[indexSize] = offset;
+        indexSize = indexSize + 1;
+    }
+
+    // Returns the position right after the last record passed to the visitor
+    private int read(int start, int limit, RecordVisitor visitor) {
+        ByteBuffer reader = buffer.duplicate().position(start).limit(limit);
+        int end = start;
+        try {
+            while (reader.hasRemaining() && reader.get(reader.position()) != 0) {
+                int offset = reader.position();
+                Message message = CODEC.decode(reader);
+                if (message == null) {
+                    break;
+                }
+                end = reader.position();
+                if (!visitor.visit(offset, message)) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // a record torn by a crash, everything before it is still valid
+        }
+        return end;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    private interface RecordVisitor {
+        // Returns false to stop reading
+        boolean visit(int offset, Message message);
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+}
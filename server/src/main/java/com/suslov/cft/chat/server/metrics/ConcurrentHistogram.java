@@ -0,0 +1,122 @@
+package com.suslov.cft.chat.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear histogram of durations in nanoseconds in the manner of HdrHistogram: every power of two range is split
+// into 2^precision linear buckets, so a value is kept with an error below 2^-precision, 7% by default. The
+// threads record into striped copies of the buckets, so concurrent writers rarely share a cache line, and the stripes
+// are summed up only for a snapshot
+public class ConcurrentHistogram {
+    public static final int DEFAULT_PRECISION = 4;
+    private static final int MAX_STRIPES = 16;
+
+    private final int precision;
+    private final int length;
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
+    private final LongAdder sum;
+    private final LongAccumulator max;
+
+    public ConcurrentHistogram() {
+        this(Math.min(MAX_STRIPES, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1)),
+                DEFAULT_PRECISION);
+    }
+
+    // A histogram recorded by one thread at a time needs a single stripe, the count of stripes is a power of two
+    public ConcurrentHistogram(int count, int precision) {
+        this.precision = precision;
+        this.length = (64 - precision + 1) << precision;
+        this.stripes = new AtomicLongArray[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new AtomicLongArray(length);
+        }
+        this.stripeMask = count - 1;
+        this.sum = new LongAdder();
+        this.max = new LongAccumulator(Math::max, 0);
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        int hash = System.identityHashCode(Thread.currentThread());
+        stripes[(hash ^ (hash >>> 16)) & stripeMask].incrementAndGet(indexOf(value));
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    // Both histograms must have the same precision
+    public void add(ConcurrentHistogram other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Histograms of different precision cannot be added");
+        }
+        Snapshot snapshot = other.snapshot();
+        long[] counts = snapshot.counts();
+        for (int i = 0; i < length; i++) {
+            if (counts[i] != 0) {
+                stripes[0].addAndGet(i, counts[i]);
+            }
+        }
+        sum.add(snapshot.sum());
+        max.accumulate(snapshot.max());
+    }
+
+    // Cheaper than a snapshot
+    public long max() {
+        return max.get();
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[length];
+        long total = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < length; i++) {
+                long count = stripe.get(i);
+                counts[i] += count;
+                total += count;
+            }
+        }
+        return new Snapshot(precision, counts, total, sum.sum(), max.get());
+    }
+
+    private int indexOf(long value) {
+        long subBucketMask = (2L << precision) - 1;
+        int bucketIndex = Math.max(0, 63 - Long.numberOfLeadingZeros(value | subBucketMask) - precision);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+        return (bucketIndex << precision) + subBucketIndex;
+    }
+
+    private static long highestEquivalentValue(int index, int precision) {
+        int subBucketHalfCount = 1 << precision;
+        int bucketIndex = (index >> precision) - 1;
+        int subBucketIndex = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+        if (bucketIndex < 0) {
+            subBucketIndex -= subBucketHalfCount;
+            bucketIndex = 0;
+        }
+        return ((long) subBucketIndex << bucketIndex) + (1L << bucketIndex) - 1;
+    }
+
+    public record Snapshot(int precision, long[] counts, long count, long sum, long max) {
+
+        public double mean() {
+            return count == 0 ? 0 : sum / (double) count;
+        }
+
+        // Returns the highest value that falls into the same bucket as the percentile
+        public long valueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                if (cumulative >= countAtPercentile) {
+                    return Math.min(max, highestEquivalentValue(i, precision));
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.suslov.cft.chat.server.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Serves the metrics on http://127.0.0.1:<port>/metrics and writes them to the log periodically, each only if enabled
+@Slf4j
+public class MetricsReporter {
+    private final ServerMetrics metrics;
+    private final int port;
+    private final int logSeconds;
+    private HttpServer httpServer;
+    private ScheduledExecutorService logger;
+
+    public MetricsReporter(ServerMetrics metrics, int port, int logSeconds) {
+        this.metrics = metrics;
+        this.port = port;
+        this.logSeconds = logSeconds;
+    }
+
+    public void start() throws IOException {
+        if (port > 0) {
+            httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            httpServer.createContext("/metrics", exchange -> {
+                byte[] body = metrics.render(true).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            httpServer.start();
+            log.info("[SERVER] Metrics are served on 'http://127.0.0.1:" + port + "/metrics'");
+        }
+        if (logSeconds > 0) {
+            logger = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "metrics-logger");
+                thread.setDaemon(true);
+                return thread;
+            });
+            logger.scheduleAtFixedRate(() -> log.info("[SERVER] Metrics snapshot:\n" + metrics.render(false)),
+                    logSeconds, logSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public void close() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+        if (logger != null) {
+            logger.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.suslov.cft.chat.server.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+// Counters are LongAdders, so the threads recording an event update their own cells instead of one shared value
+public class ServerMetrics {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final IntSupplier openConnections;
+    private final IntSupplier onlineUsers;
+    private final int userSeries;
+    private final long startNanos;
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder usersRegistered = new LongAdder();
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder sendErrors = new LongAdder();
+    private final ConcurrentHistogram fanOutNanos = new ConcurrentHistogram();
+    private final ConcurrentHistogram writeNanos = new ConcurrentHistogram();
+    private final ConcurrentHistogram ackNanos = new ConcurrentHistogram();
+    // The acknowledgements of a user come from its connection one by one, so its histogram has a single stripe
+    private final Map<String, ConcurrentHistogram> userAckNanos = new ConcurrentHashMap<>();
+    // No tracked user has a maximum below it, so a latency up to it cannot take a place
+    private volatile long userAdmissionNanos;
+
+    public ServerMetrics(IntSupplier openConnections, IntSupplier onlineUsers, int userSeries) {
+        this.openConnections = openConnections;
+        this.onlineUsers = onlineUsers;
+        this.userSeries = userSeries;
+        this.startNanos = System.nanoTime();
+    }
+
+    public void connectionAccepted() {
+        connectionsAccepted.increment();
+    }
+
+    public void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    public void userRegistered() {
+        usersRegistered.increment();
+    }
+
+    public void messageReceived() {
+        messagesIn.increment();
+    }
+
+    public void bytesReceived(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    public void sendFailed() {
+        sendErrors.increment();
+    }
+
+    public void fanOutCompleted(long nanos) {
+        fanOutNanos.record(nanos);
+    }
+
+    // One write call of a client writer, which may carry a batch of frames
+    public void writeCompleted(int frames, long bytes, long nanos) {
+        messagesOut.add(frames);
+        bytesOut.add(bytes);
+        writeNanos.record(nanos);
+    }
+
+    // From the ingestion of a chat message to the acknowledgement of it by a recipient
+    public void ackReceived(String userName, long nanos) {
+        ackNanos.record(nanos);
+        ConcurrentHistogram histogram = userAckNanos.get(userName);
+        if (histogram == null && nanos > userAdmissionNanos) {
+            histogram = trackUser(userName, nanos);
+        }
+        if (histogram != null) {
+            histogram.record(nanos);
+        }
+    }
+
+    // Only the slowest recipients keep a series: once all the places are taken, a new user takes the place of the
+    // tracked one with the lowest maximum if it is slower. Returns null if the user is not tracked
+    private synchronized ConcurrentHistogram trackUser(String userName, long nanos) {
+        ConcurrentHistogram histogram = userAckNanos.get(userName);
+        if (histogram != null || userSeries == 0) {
+            return histogram;
+        }
+        if (userAckNanos.size() >= userSeries) {
+            String fastestUser = null;
+            long fastestMax = Long.MAX_VALUE;
+            for (Map.Entry<String, ConcurrentHistogram> entry : userAckNanos.entrySet()) {
+                long max = entry.getValue().max();
+                if (max < fastestMax) {
+                    fastestUser = entry.getKey();
+                    fastestMax = max;
+                }
+            }
+            userAdmissionNanos = fastestMax;
+            if (nanos <= fastestMax) {
+                return null;
+            }
+            userAckNanos.remove(fastestUser);
+        }
+        histogram = new ConcurrentHistogram(1, ConcurrentHistogram.DEFAULT_PRECISION);
+        userAckNanos.put(userName, histogram);
+        return histogram;
+    }
+
+    public synchronized void userLeft(String userName) {
+        if (userAckNanos.remove(userName) != null) {
+            userAdmissionNanos = 0;
+        }
+    }
+
+    // Plain text, one "name value" pair per line; the series of the slowest users only if asked for
+    public String render(boolean perUser) {
+        StringBuilder text = new StringBuilder();
+        append(text, "uptime_seconds", (System.nanoTime() - startNanos) / 1_000_000_000L);
+        append(text, "connections_accepted", connectionsAccepted.sum());
+        append(text, "connections_closed", connectionsClosed.sum());
+        append(text, "connections_open", openConnections.getAsInt());
+        append(text, "users_registered", usersRegistered.sum());
+        append(text, "users_online", onlineUsers.getAsInt());
+        append(text, "messages_in", messagesIn.sum());
+        append(text, "messages_out", messagesOut.sum());
+        append(text, "bytes_in", bytesIn.sum());
+        append(text, "bytes_out", bytesOut.sum());
+        append(text, "send_errors", sendErrors.sum());
+        appendHistogram(text, "fan_out_nanos", fanOutNanos.snapshot());
+        appendHistogram(text, "write_nanos", writeNanos.snapshot());
+        appendHistogram(text, "ack_latency_nanos", ackNanos.snapshot());
+        if (perUser) {
+            new TreeMap<>(userAckNanos).forEach((userName, histogram) -> appendUserHistogram(text,
+                    "ack_latency_nanos", userName, histogram.snapshot()));
+        }
+        return text.toString();
+    }
+
+    private static void appendHistogram(StringBuilder text, String name, ConcurrentHistogram.Snapshot snapshot) {
+        append(text, name + "_count", snapshot.count());
+        append(text, name + "_mean", Math.round(snapshot.mean()));
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            append(text, name + "_" + PERCENTILE_NAMES[i], snapshot.valueAtPercentile(PERCENTILES[i]));
+        }
+        append(text, name + "_max", snapshot.max());
+    }
+
+    private static void appendUserHistogram(StringBuilder text, String name, String userName,
+                                            ConcurrentHistogram.Snapshot snapshot) {
+        String label = "{user=\"" + userName.replace("\\", "\\\\").replace("\"", "\\\"")
+                .replace("\n", "\\n") + "\"}";
+        append(text, name + "_count" + label, snapshot.count());
+        append(text, name + "_p50" + label, snapshot.valueAtPercentile(50));
+        append(text, name + "_p99" + label, snapshot.valueAtPercentile(99));
+        append(text, name + "_max" + label, snapshot.max());
+    }
+
+    private static void append(StringBuilder text, String name, long value) {
+        text.append(name).append(' ').append(value).append('\n');
+    }
+}
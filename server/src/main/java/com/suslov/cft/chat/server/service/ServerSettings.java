@@ -0,0 +1,181 @@
+package com.suslov.cft.chat.server.service;
+
+import com.suslov.cft.chat.server.OutboundQueue.OverflowPolicy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+@Slf4j
+@Getter
+public final class ServerSettings {
+    private final Engine engine;
+    private final int nioThreads;
+    private final int outboundCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final int outboundBatchFrames;
+    private final int flushWindowMillis;
+    private final boolean historyEnabled;
+    private final String historyDir;
+    private final int historySegmentBytes;
+    private final int historyRetentionSegments;
+    private final int historyMemoryMessages;
+    private final int historyFlushMillis;
+    private final int historyReplayMessages;
+    private final int historyReplayBatch;
+    private final int historyReplayThreads;
+    private final ClusterMode clusterBus;
+    private final String clusterNode;
+    private final String clusterGroup;
+    private final String clusterBind;
+    private final int clusterPort;
+    private final List<InetSocketAddress> clusterPeers;
+    private final String clusterSecret;
+    private final int metricsPort;
+    private final int metricsLogSeconds;
+    private final int metricsUserSeries;
+    private final int logMessagesSample;
+    private final int idleReadSeconds;
+    private final int idleWriteSeconds;
+    private final int idleTickMillis;
+    private final int rateConnectionPerSecond;
+    private final int rateConnectionBurst;
+    private final int rateUserPerSecond;
+    private final int rateUserBurst;
+    private final int messageMaxLength;
+    private final int messageMaxFieldLength;
+    private final int sessionGraceSeconds;
+    private final int shutdownDrainSeconds;
+
+    private ServerSettings(Properties props) {
+        this.engine = parseToEnum(props, "engine", Engine.THREAD);
+        this.nioThreads = parseToInt(props, "nio.threads", Runtime.getRuntime().availableProcessors());
+        this.outboundCapacity = parseToInt(props, "outbound.capacity", 1024);
+        this.overflowPolicy = parseToEnum(props, "outbound.overflow", OverflowPolicy.COALESCE_PRESENCE);
+        this.outboundBatchFrames = parseToInt(props, "outbound.batch.frames", 64);
+        this.flushWindowMillis = parseToInt(props, "outbound.flush.window.millis", 0);
+        this.historyEnabled = parseToBoolean(props, "history.enabled", true);
+        this.historyDir = parseToString(props, "history.dir", "history");
+        this.historySegmentBytes = parseToInt(props, "history.segment.bytes", 16 * 1024 * 1024);
+        this.historyRetentionSegments = parseToInt(props, "history.retention.segments", 8);
+        this.historyMemoryMessages = parseToInt(props, "history.memory.messages", 1000);
+        this.historyFlushMillis = parseToInt(props, "history.flush.millis", 200);
+        this.historyReplayMessages = parseToInt(props, "history.replay.messages", 50);
+        this.historyReplayBatch = parseToInt(props, "history.replay.batch", 100);
+        this.historyReplayThreads = parseToInt(props, "history.replay.threads", 2);
+        this.clusterBus = parseToEnum(props, "cluster.bus", ClusterMode.NONE);
+        this.clusterNode = parseToString(props, "cluster.node",
+                "node-" + Integer.toHexString(ThreadLocalRandom.current().nextInt()));
+        this.clusterGroup = parseToString(props, "cluster.group", "chat");
+        this.clusterBind = parseToString(props, "cluster.bind", "127.0.0.1");
+        this.clusterPort = parseToInt(props, "cluster.port", 5500);
+        this.clusterPeers = parseToAddresses(props, "cluster.peers");
+        this.clusterSecret = parseToString(props, "cluster.secret", "");
+        this.metricsPort = parseToInt(props, "metrics.port", 0);
+        this.metricsLogSeconds = parseToInt(props, "metrics.log.seconds", 60, 0);
+        this.metricsUserSeries = parseToInt(props, "metrics.user.series", 20, 0);
+        this.logMessagesSample = parseToInt(props, "log.messages.sample", 100);
+        this.idleReadSeconds = parseToInt(props, "idle.read.seconds", 60);
+        this.idleWriteSeconds = parseToInt(props, "idle.write.seconds", 20);
+        this.idleTickMillis = parseToInt(props, "idle.tick.millis", 1000);
+        this.rateConnectionPerSecond = parseToInt(props, "rate.connection.messages.per.second", 50);
+        this.rateConnectionBurst = parseToInt(props, "rate.connection.burst", 100);
+        this.rateUserPerSecond = parseToInt(props, "rate.user.messages.per.second", 10);
+        this.rateUserBurst = parseToInt(props, "rate.user.burst", 20);
+        this.messageMaxLength = parseToInt(props, "message.max.length", 4096);
+        this.messageMaxFieldLength = parseToInt(props, "message.max.field.length", 256);
+        this.sessionGraceSeconds = parseToInt(props, "session.grace.seconds", 30);
+        this.shutdownDrainSeconds = parseToInt(props, "shutdown.drain.seconds", 10);
+    }
+
+    public static ServerSettings from(Properties props) {
+        return new ServerSettings(props);
+    }
+
+    public static ServerSettings load() {
+        Properties props = new Properties();
+        try (InputStream in = ServerSettings.class.getResourceAsStream("/server.properties")) {
+            if (in != null) {
+                props.load(in);
+            } else {
+                log.info("[SERVER] Server properties file is missing, default settings are used");
+            }
+        } catch (IOException e) {
+            log.error("Server properties loading error", e);
+        }
+        return new ServerSettings(props);
+    }
+
+    private static <E extends Enum<E>> E parseToEnum(Properties props, String propertyName, E defaultValue) {
+        String property = props.getProperty(propertyName);
+        if (property == null || property.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(defaultValue.getDeclaringClass(), property.trim().toUpperCase());
+        } catch (IllegalArgumentException exp) {
+            log.error("Value parsing error of '" + propertyName + "': value '" + property + "' is incorrect");
+            return defaultValue;
+        }
+    }
+
+    private static String parseToString(Properties props, String propertyName, String defaultValue) {
+        String property = props.getProperty(propertyName);
+        return property == null || property.isBlank() ? defaultValue : property.trim();
+    }
+
+    private static boolean parseToBoolean(Properties props, String propertyName, boolean defaultValue) {
+        String property = props.getProperty(propertyName);
+        return property == null || property.isBlank() ? defaultValue : Boolean.parseBoolean(property.trim());
+    }
+
+    private static List<InetSocketAddress> parseToAddresses(Properties props, String propertyName) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        String property = props.getProperty(propertyName);
+        if (property == null || property.isBlank()) {
+            return addresses;
+        }
+        for (String address : property.split(",")) {
+            String[] hostAndPort = address.trim().split(":");
+            try {
+                addresses.add(new InetSocketAddress(hostAndPort[0], Integer.parseInt(hostAndPort[1])));
+            } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException exp) {
+                log.error("Value parsing error of '" + propertyName + "': address '" + address + "' is incorrect");
+            }
+        }
+        return addresses;
+    }
+
+    private static int parseToInt(Properties props, String propertyName, int defaultValue) {
+        return parseToInt(props, propertyName, defaultValue, 1);
+    }
+
+    // Values below the minimum fall back to the default
+    private static int parseToInt(Properties props, String propertyName, int defaultValue, int minValue) {
+        String property = props.getProperty(propertyName);
+        if (property == null || property.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            int value = Integer.parseInt(property.trim());
+            return value >= minValue ? value : defaultValue;
+        } catch (NumberFormatException exp) {
+            log.error("Value parsing error of '" + propertyName + "': value '" + property + "' is incorrect");
+            return defaultValue;
+        }
+    }
+
+    public enum Engine {
+        THREAD, VIRTUAL, NIO
+    }
+
+    public enum ClusterMode {
+        NONE, LOOPBACK, TCP
+    }
+}
@@ -0,0 +1,102 @@
+package com.suslov.cft.chat.server;
+
+import com.suslov.cft.chat.common.Feature;
+import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.server.service.ServerSettings;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import static com.suslov.cft.chat.common.Message.Type.SHUTDOWN;
+import static com.suslov.cft.chat.common.Message.Type.USER_TEXT;
+import static org.junit.jupiter.api.Assertions.*;
+
+// The users flood the chat without reading, so the server holds a deep outbound queue for each of them when it shuts
+// down. A watcher reading all along tells when everything has been published, and every user must then get all of it,
+// the shutdown notice after it and the end of the stream
+class ChatServerShutdownTest {
+    private static final int USERS = 4;
+    private static final int MESSAGES_PER_USER = 500;
+    private static final int MESSAGES = USERS * MESSAGES_PER_USER;
+    // Large enough for the flood not to fit into the socket buffers
+    private static final String TEXT = "x".repeat(4000);
+
+    @TempDir
+    Path historyDir;
+
+    @ParameterizedTest
+    @EnumSource(value = ServerSettings.Engine.class, names = {"THREAD", "NIO"})
+    void shutdownDeliversEveryQueuedMessage(ServerSettings.Engine engine) throws Exception {
+        Properties settings = new Properties();
+        // The queues hold the whole flood, so a message can only be lost by the shutdown itself
+        settings.setProperty("outbound.capacity", String.valueOf(MESSAGES + 1024));
+        settings.setProperty("shutdown.drain.seconds", "30");
+        Set<Feature> features = EnumSet.of(Feature.SHUTDOWN);
+
+        List<TestClient> users = new ArrayList<>();
+        try (TestServer server = TestServer.start(engine, historyDir, settings);
+             TestClient watcher = TestClient.register(server.getPort(), "watcher", features)) {
+            for (int i = 0; i < USERS; i++) {
+                users.add(TestClient.register(server.getPort(), "user-" + i, features));
+            }
+            for (int message = 0; message < MESSAGES_PER_USER; message++) {
+                for (TestClient user : users) {
+                    user.send(new Message(USER_TEXT, user.getName(), TEXT));
+                }
+            }
+            Set<Long> published = new HashSet<>();
+            while (published.size() < MESSAGES) {
+                published.add(watcher.readUntil(USER_TEXT).getSeq());
+            }
+
+            // The shutdown waits for the clients to close their side, as it does in the shutdown hook
+            Thread shutdownThread = new Thread(server.getServer()::shutdown, "test-shutdown");
+            shutdownThread.start();
+            for (TestClient user : users) {
+                Delivery delivery = readToEnd(user);
+                user.close();
+                assertEquals(published, delivery.seqs, user.getName() + " has not got every published message");
+                assertTrue(delivery.notified, user.getName() + " has not got the shutdown notice");
+                assertEquals(0, delivery.late, user.getName() + " has got messages after the shutdown notice");
+            }
+            watcher.close();
+            shutdownThread.join(TestClient.TIMEOUT_MILLIS);
+            server.getThread().join(TestClient.TIMEOUT_MILLIS);
+            assertFalse(shutdownThread.isAlive() || server.getThread().isAlive(), "server has not stopped");
+        } finally {
+            users.forEach(TestClient::close);
+        }
+    }
+
+    // Reads until the server closes the connection
+    private static Delivery readToEnd(TestClient user) throws IOException {
+        Delivery delivery = new Delivery();
+        Message message;
+        while ((message = user.read()) != null) {
+            if (message.getType() == SHUTDOWN) {
+                delivery.notified = true;
+            } else if (message.getType() == USER_TEXT) {
+                delivery.seqs.add(message.getSeq());
+                if (delivery.notified) {
+                    delivery.late++;
+                }
+            }
+        }
+        return delivery;
+    }
+
+    private static class Delivery {
+        private final Set<Long> seqs = new HashSet<>();
+        private boolean notified;
+        private int late;
+    }
+}
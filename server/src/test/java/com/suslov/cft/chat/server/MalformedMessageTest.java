@@ -0,0 +1,64 @@
+package com.suslov.cft.chat.server;
+
+import com.suslov.cft.chat.common.Feature;
+import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.server.service.ServerSettings;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import static com.suslov.cft.chat.common.Message.Type.USER_TEXT;
+import static org.junit.jupiter.api.Assertions.*;
+
+// A frame the server cannot handle costs only the connection that has sent it: the server closes that connection, and
+// with a single event loop every other client shares the thread with the broken one and must still be served
+class MalformedMessageTest {
+    private static final List<String> MALFORMED_FRAMES = List.of("{}\n", "{\"type\":null}\n",
+            "{\"type\":\"UNKNOWN\",\"text\":\"x\"}\n");
+
+    @TempDir
+    Path historyDir;
+
+    @ParameterizedTest
+    @EnumSource(value = ServerSettings.Engine.class, names = {"THREAD", "NIO"})
+    void malformedFrameDoesNotStopOtherClients(ServerSettings.Engine engine) throws Exception {
+        Properties settings = new Properties();
+        settings.setProperty("nio.threads", "1");
+        Set<Feature> features = EnumSet.noneOf(Feature.class);
+        try (TestServer server = TestServer.start(engine, historyDir, settings);
+             TestClient alice = TestClient.register(server.getPort(), "alice", features)) {
+            for (String frame : MALFORMED_FRAMES) {
+                try (TestClient broken = TestClient.connect(server.getPort())) {
+                    broken.sendRaw(frame.getBytes(StandardCharsets.UTF_8));
+                    assertClosedByServer(broken, frame);
+                }
+            }
+            try (TestClient bob = TestClient.register(server.getPort(), "bob", features)) {
+                bob.send(new Message(USER_TEXT, bob.getName(), "still here"));
+                Message message = alice.readUntil(USER_TEXT);
+                assertEquals("bob", message.getUserName());
+                assertEquals("still here", message.getText());
+            }
+        }
+    }
+
+    // Nothing is sent back, the server either closes the connection or resets it
+    private static void assertClosedByServer(TestClient client, String frame) {
+        try {
+            assertNull(client.read(), "connection is still open after " + frame.trim());
+        } catch (SocketTimeoutException e) {
+            fail("connection is still open after " + frame.trim());
+        } catch (IOException e) {
+            // Reset by the server
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.suslov.cft.chat.server;
+
+import com.suslov.cft.chat.common.Feature;
+import com.suslov.cft.chat.common.Message;
+import com.suslov.cft.chat.common.codec.MessageReader;
+import com.suslov.cft.chat.common.codec.WireFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Set;
+
+import static com.suslov.cft.chat.common.Message.Type.HELLO;
+import static com.suslov.cft.chat.common.Message.Type.USER_NAME;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+// A chat client speaking the protocol over a plain socket, every read fails after the timeout
+class TestClient implements AutoCloseable {
+    static final int TIMEOUT_MILLIS = 30_000;
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final MessageReader in;
+    private WireFormat format = WireFormat.LEGACY_JSON;
+    private String name;
+
+    private TestClient(Socket socket) throws IOException {
+        this.socket = socket;
+        this.out = socket.getOutputStream();
+        this.in = new MessageReader(socket.getInputStream());
+    }
+
+    // Retries until the server is listening
+    static TestClient connect(int port) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                Socket socket = new Socket("127.0.0.1", port);
+                socket.setSoTimeout(TIMEOUT_MILLIS);
+                return new TestClient(socket);
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    static TestClient register(int port, String name, Set<Feature> features) throws IOException,
+            InterruptedException {
+        TestClient client = connect(port);
+        client.send(new Message(HELLO, null, Feature.format(features)));
+        Message reply = client.readUntil(HELLO);
+        client.format = WireFormat.of(Feature.parse(reply.getText()));
+        client.name = name;
+        client.send(new Message(USER_NAME, name));
+        client.readUntil(USER_NAME);
+        return client;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void send(Message message) throws IOException {
+        sendRaw(format.getCodec().encode(message));
+    }
+
+    void sendRaw(byte[] frame) throws IOException {
+        out.write(frame);
+        out.flush();
+    }
+
+    // Returns null at the end of the stream
+    Message read() throws IOException {
+        return in.read(format.getCodec());
+    }
+
+    Message readUntil(Message.Type type) throws IOException {
+        Message message;
+        do {
+            message = read();
+            assertNotNull(message, name + " has been disconnected while waiting for " + type);
+        } while (message.getType() != type);
+        return message;
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // The connection is already closed by the server
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.suslov.cft.chat.server;
+
+import com.suslov.cft.chat.server.service.ServerSettings;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.Properties;
+
+// A server on a free port in this process, without history and flood protection unless the settings say otherwise
+class TestServer implements AutoCloseable {
+    private final ChatServer server;
+    private final Thread thread;
+    private final int port;
+
+    private TestServer(ChatServer server, int port) {
+        this.server = server;
+        this.port = port;
+        this.thread = new Thread(() -> server.launch(port), "test-server");
+    }
+
+    static TestServer start(ServerSettings.Engine engine, Path historyDir, Properties overrides) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("engine", engine.name().toLowerCase());
+        props.setProperty("history.enabled", "false");
+        props.setProperty("history.dir", historyDir.toString());
+        props.setProperty("metrics.log.seconds", "0");
+        props.setProperty("rate.connection.messages.per.second", "1000000");
+        props.setProperty("rate.connection.burst", "1000000");
+        props.setProperty("rate.user.messages.per.second", "1000000");
+        props.setProperty("rate.user.burst", "1000000");
+        props.putAll(overrides);
+        TestServer testServer = new TestServer(new ChatServer(ServerSettings.from(props)), freePort());
+        testServer.thread.start();
+        return testServer;
+    }
+
+    ChatServer getServer() {
+        return server;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    Thread getThread() {
+        return thread;
+    }
+
+    // Waits for the clients still connected to close their side
+    @Override
+    public void close() throws InterruptedException {
+        server.shutdown();
+        thread.join(TestClient.TIMEOUT_MILLIS);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}